@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * Makes the VM code of a class as short as possible without changing what it does. The instructions no path from the
+ * start of their function reaches are removed, so are the labels no jump goes to, and the labels which are left are
+ * renamed to the shortest names, a, b, ... z, A ... Z, then two characters, counted from a again in every function.
+ * Labels only need to be unique in their function, translators name them after the function.
+ */
+public class CodeCompactor {
+
+    static final String FIRST = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    static final String NEXT = FIRST + "0123456789_";
+
+    long instructionsIn, instructionsOut;
+    long bytesIn, bytesOut;
+    long labelsRemoved, unreachableRemoved;
+
+    // for the function being compacted: where each label is, indexed by name id, and whether each instruction is reached
+    int[] labelAt;
+    boolean[] reached;
+    int[] pending;
+
+    // the jumps to every label of the function which can run, and the new name of every label
+    int[] jumps;
+    int[] renamed;
+
+    // the ids of the short names in the pool they were interned in
+    NamePool shortNamesPool;
+    int[] shortNames;
+
+    public CodeCompactor() {
+        this.labelAt = new int[64];
+        this.reached = new boolean[256];
+        this.pending = new int[256];
+        this.jumps = new int[64];
+        this.renamed = new int[64];
+        this.shortNames = new int[64];
+    }
+
+    /**
+     * Returns a compacted copy of the given code which shares its string pool.
+     */
+    public VMCode compact(VMCode code){
+        VMCode result = new VMCode(code.strings);
+        int start = 0;
+        while(start < code.size()){
+            int end = start + 1;
+            while(end < code.size() && code.command(end) != Command.FUNCTION) end++;
+            compactFunction(code, start, end, result);
+            start = end;
+        }
+        instructionsIn += code.size();
+        instructionsOut += result.size();
+        bytesIn += textLength(code, 0, code.size());
+        bytesOut += textLength(result, 0, result.size());
+        return result;
+    }
+
+    private void compactFunction(VMCode code, int start, int end, VMCode result){
+        int names = code.strings.size();
+        if(labelAt.length < names){
+            labelAt = new int[names * 2];
+            jumps = new int[names * 2];
+            renamed = new int[names * 2];
+        }
+        Arrays.fill(labelAt, 0, names, -1);
+        Arrays.fill(jumps, 0, names, 0);
+        Arrays.fill(renamed, 0, names, -1);
+        for(int i = start; i < end; i++){
+            if(code.command(i) == Command.LABEL) labelAt[code.name(i)] = i;
+        }
+        markReached(code, start, end);
+        for(int i = start; i < end; i++){
+            if(reached[i - start] && (code.command(i) == Command.GOTO || code.command(i) == Command.IF_GOTO)){
+                jumps[code.name(i)]++;
+            }
+        }
+
+        int labels = 0;
+        for(int i = start; i < end; i++){
+            Command command = code.command(i);
+            if(!reached[i - start]){
+                if(command == Command.LABEL) labelsRemoved++;
+                else unreachableRemoved++;
+                continue;
+            }
+            if(command == Command.LABEL || command == Command.GOTO || command == Command.IF_GOTO){
+                int label = code.name(i);
+                if(command == Command.LABEL && jumps[label] == 0){
+                    labelsRemoved++;
+                    continue;
+                }
+                if(renamed[label] < 0){
+                    renamed[label] = shortName(code.strings, labels++);
+                }
+                result.add(command, null, 0, renamed[label]);
+            }
+            else result.add(code, i);
+        }
+    }
+
+    /**
+     * Marks the instructions of [start, end) which can run, following the jumps from the function instruction.
+     */
+    private void markReached(VMCode code, int start, int end){
+        int length = end - start;
+        if(reached.length < length){
+            reached = new boolean[length * 2];
+            pending = new int[length * 2];
+        }
+        Arrays.fill(reached, 0, length, false);
+        int count = 0;
+        pending[count++] = start;
+        reached[0] = true;
+        while(count > 0){
+            int i = pending[--count];
+            Command command = code.command(i);
+            if(command == Command.GOTO || command == Command.IF_GOTO){
+                int target = labelAt[code.name(i)];
+                if(target >= 0 && !reached[target - start]){
+                    reached[target - start] = true;
+                    pending[count++] = target;
+                }
+            }
+            if(command != Command.GOTO && command != Command.RETURN && i + 1 < end && !reached[i + 1 - start]){
+                reached[i + 1 - start] = true;
+                pending[count++] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the n-th shortest label name in the pool.
+     */
+    private int shortName(NamePool strings, int n){
+        if(strings != shortNamesPool){
+            shortNamesPool = strings;
+            Arrays.fill(shortNames, -1);
+        }
+        if(n >= shortNames.length){
+            int old = shortNames.length;
+            shortNames = Arrays.copyOf(shortNames, n * 2);
+            Arrays.fill(shortNames, old, shortNames.length, -1);
+        }
+        if(shortNames[n] < 0){
+            StringBuilder name = new StringBuilder();
+            name.append(FIRST.charAt(n % FIRST.length()));
+            for(int rest = n / FIRST.length(); rest > 0; rest /= NEXT.length()){
+                rest--;
+                name.append(NEXT.charAt(rest % NEXT.length()));
+            }
+            shortNames[n] = strings.intern(name.toString());
+        }
+        return shortNames[n];
+    }
+
+    /**
+     * Returns the number of bytes of the textual .vm form of the instructions in [from, to).
+     */
+    static long textLength(VMCode code, int from, int to){
+        long length = 0;
+        for(int i = from; i < to; i++){
+            Command command = code.command(i);
+            length += command.text.length() + 1;
+            switch(command){
+                case PUSH:
+                case POP:
+                    length += 2 + code.segment(i).text.length() + digits(code.operand(i));
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    length += 1 + code.nameOf(i).length();
+                    break;
+                case FUNCTION:
+                case CALL:
+                    length += 2 + code.nameOf(i).length() + digits(code.operand(i));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return length;
+    }
+
+    private static int digits(int n){
+        return Integer.toString(n).length();
+    }
+
+    /**
+     * Adds the counters of another compactor to this one.
+     */
+    public synchronized void merge(CodeCompactor other){
+        instructionsIn += other.instructionsIn;
+        instructionsOut += other.instructionsOut;
+        bytesIn += other.bytesIn;
+        bytesOut += other.bytesOut;
+        labelsRemoved += other.labelsRemoved;
+        unreachableRemoved += other.unreachableRemoved;
+    }
+
+    public String report(){
+        return "compact: " + bytesIn + " -> " + bytesOut + " bytes"
+            + String.format(" (%.1f%% smaller), ", (bytesIn == 0) ? 0.0 : 100.0 * (bytesIn - bytesOut) / bytesIn)
+            + instructionsIn + " -> " + instructionsOut + " instructions, " + labelsRemoved + " unused labels and "
+            + unreachableRemoved + " unreachable instructions removed\n";
+    }
+}
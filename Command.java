@@ -0,0 +1,26 @@
+public enum Command {
+    PUSH("push"),
+    POP("pop"),
+    ADD("add"),
+    SUB("sub"),
+    NEG("neg"),
+    EQ("eq"),
+    GT("gt"),
+    LT("lt"),
+    AND("and"),
+    OR("or"),
+    NOT("not"),
+    LABEL("label"),
+    GOTO("goto"),
+    IF_GOTO("if-goto"),
+    FUNCTION("function"),
+    CALL("call"),
+    RETURN("return");
+
+    public final String text;
+    static final Command[] values = values();
+
+    Command(String text) {
+        this.text = text;
+    }
+}
@@ -1,24 +1,84 @@
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CompilationEngine {
+
+    // the version of the generated code, the compile cache keeps .vm files only for the version which wrote them.
+    // Increase it with every change to the code written for some source
+    static final int CODE_VERSION = 5;
     
     JackTokenizer tokenizer;
     SymbolTable classTable, subroutineTable;
     VMWriter vmWriter;
     String className, funcName;
-    boolean isVarUsed, isVoid;
+    int classId;
+    Keyword subroutineKind;
     int labelCount;
 
+    // constant folding: after compileTerm or compileExpression, isConstant tells whether the code just written 
+    // pushes the compile time constant constantValue
+    boolean folding;
+    boolean isConstant;
+    int constantValue;
+
+    // strength reduction, and the number of Math.multiply and Math.divide calls which were not written
+    boolean reduceStrength;
+    int multiplyCallsEliminated, divideCallsEliminated;
+
+    // constant propagation: the number of assignments and the known constant value of every local, indexed by name id.
+    // An entry belongs to the current subroutine only when its stamp equals subroutineCount
+    int subroutineCount, statementDepth;
+    int[] assignStamps, assignCounts, constantStamps, constantValues;
+
+    // string literals: with internStrings every literal of at most internMaxLength chars is built the first time it is
+    // used into a static variable of the class, after the declared ones, and read from there afterwards
+    static final int MAX_INTERNED = 16;
+    boolean internStrings;
+    int internMaxLength;
+    Map<String, Integer> literalSlots;
+
     public CompilationEngine(File input, File output) throws IOException {
-        this.vmWriter = new VMWriter(output);
-        this.tokenizer = new JackTokenizer(input);
+        this(input, output, new CompilerOptions());
+    }
+
+    public CompilationEngine(File input, File output, CompilerOptions options) throws IOException {
+        this(new JackTokenizer(input), new VMWriter(output, options), options);
+    }
+
+    public CompilationEngine(JackTokenizer tokenizer, VMWriter vmWriter, CompilerOptions options) {
+        this.vmWriter = vmWriter;
+        this.tokenizer = tokenizer;
         this.classTable= new SymbolTable();
         this.subroutineTable = new SymbolTable();
-        this.isVarUsed = false;
         this.className = "";
         this.funcName = "";
         this.labelCount = 0;
+        this.folding = options.optimizationLevel >= 1;
+        this.reduceStrength = options.optimizationLevel >= 2;
+        this.multiplyCallsEliminated = 0;
+        this.divideCallsEliminated = 0;
+        this.subroutineCount = 0;
+        this.statementDepth = 0;
+        this.assignStamps = new int[64];
+        this.assignCounts = new int[64];
+        this.constantStamps = new int[64];
+        this.constantValues = new int[64];
+        this.internStrings = options.internStrings;
+        this.internMaxLength = options.internMaxLength;
+        this.literalSlots = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Returns the engine the options ask for, the single pass one or the one which builds a syntax tree first.
+     */
+    public static CompilationEngine create(JackTokenizer tokenizer, VMWriter vmWriter, CompilerOptions options){
+        if(options.syntaxTree){
+            return new TreeCompiler(tokenizer, vmWriter, options);
+        }
+        return new CompilationEngine(tokenizer, vmWriter, options);
     }
 
     public void compileClass() throws IOException{
@@ -29,20 +89,22 @@ public class CompilationEngine {
         // className
         tokenizer.advance();
         className = tokenizer.identifier();
+        classId = tokenizer.identifierId();
         
         // {
         tokenizer.advance();
+        expect('{');
         
         // check if varDec exists
         tokenizer.advance();
-        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword().equals("static") || tokenizer.keyword().equals("field"))){
+        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword() == Keyword.STATIC || tokenizer.keyword() == Keyword.FIELD)){
             compileClassVarDec();
             tokenizer.advance();
         }
 
         // check if subroutineDec exists
-        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword().equals("function") || tokenizer.keyword().equals("constructor")
-           || tokenizer.keyword().equals("method"))){
+        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword() == Keyword.FUNCTION || tokenizer.keyword() == Keyword.CONSTRUCTOR
+           || tokenizer.keyword() == Keyword.METHOD)){
             compileSubroutine();
             tokenizer.advance();
         }
@@ -51,18 +113,19 @@ public class CompilationEngine {
     }
     
     public void compileClassVarDec() throws IOException{
-        String name,type,kind;
+        int type, name;
+        Kind kind;
 
         // write static|field
-        kind = tokenizer.keyword().toUpperCase();
+        kind = (tokenizer.keyword() == Keyword.STATIC) ? Kind.STATIC : Kind.FIELD;
 
         // type
         tokenizer.advance();
-        type = tokenizer.keyword();
+        type = tokenizer.identifierId();
 
         //varName
         tokenizer.advance();
-        name = tokenizer.identifier();
+        name = tokenizer.identifierId();
         classTable.define(name, type, kind);
 
         //check if more variables exist
@@ -72,7 +135,7 @@ public class CompilationEngine {
 
             //write varName
             tokenizer.advance();
-            name = tokenizer.identifier();
+            name = tokenizer.identifierId();
             classTable.define(name, type, kind);
 
             //get next token
@@ -84,23 +147,19 @@ public class CompilationEngine {
     }
     
     public void compileSubroutine() throws IOException{
+        SubroutineCompiledEvent event = new SubroutineCompiledEvent();
+        event.begin();
+        int firstToken = tokenizer.tokenCount;
+        int firstInstruction = vmWriter.position();
+
         subroutineTable.reset();
-        isVarUsed = false;
+        subroutineCount++;
 
         // skip constructor | function | method
-        if(tokenizer.keyword().equals("constructor")){
-            //allocate memory for constructor
-            vmWriter.writePush("constant", classTable.varCount("FIELD"));
-            vmWriter.writeCall("Memory.alloc", 1);
-            vmWriter.writePop("pointer", 0);
-        }
-        else if(tokenizer.keyword().equals("method")){
+        subroutineKind = tokenizer.keyword();
+        if(subroutineKind == Keyword.METHOD){
             // add "this" to symbol table
-            subroutineTable.define("this",className,"ARG");
-
-            // set THIS on RAM to the given object
-            vmWriter.writePush("argument", 0);
-            vmWriter.writePop("pointer", 0);
+            subroutineTable.define(Keyword.THIS.ordinal(), classId, Kind.ARG);
         }
         // skip void | type
         tokenizer.advance();
@@ -117,24 +176,32 @@ public class CompilationEngine {
         compileParameterList();
 
         //skip ')'
+        expect(')');
 
         // subroutineBody
         compileSubroutineBody();
 
+        if(event.shouldCommit()){
+            event.subroutine = className + "." + funcName;
+            event.tokens = tokenizer.tokenCount - firstToken;
+            event.instructions = vmWriter.position() - firstInstruction;
+            event.commit();
+        }
     }
     
     public void compileParameterList() throws IOException{
         
         // check if parmeter exists
         if(tokenizer.tokenType() != Type.SYMBOL){
-            String type,name,kind = "ARG";
+            int type, name;
+            Kind kind = Kind.ARG;
 
             //write parameter type
-            type = tokenizer.keyword();
+            type = tokenizer.identifierId();
 
             // varName
             tokenizer.advance();
-            name = tokenizer.keyword();
+            name = tokenizer.identifierId();
             subroutineTable.define(name, type, kind);
 
             //check if more parameters exist
@@ -144,11 +211,11 @@ public class CompilationEngine {
 
                 //write type
                 tokenizer.advance();
-                type = tokenizer.keyword();
+                type = tokenizer.identifierId();
 
                 //write varName
                 tokenizer.advance();
-                name = tokenizer.identifier();
+                name = tokenizer.identifierId();
                 subroutineTable.define(name, type, kind);
                 
                 //get next token
@@ -161,34 +228,49 @@ public class CompilationEngine {
 
         // skip '{'
         tokenizer.advance();
+        expect('{');
         
         // check if declarations of variables exist
         tokenizer.advance();
-        while(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword().equals("var")){
+        while(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword() == Keyword.VAR){
             compileVarDec();
             tokenizer.advance();
         }
-        isVarUsed = true;
         
-        vmWriter.writeFunction(className + "." + funcName, subroutineTable.varCount("LOCAL"));
+        vmWriter.writeFunction(className + "." + funcName, subroutineTable.varCount(Kind.VAR));
+        if(subroutineKind == Keyword.CONSTRUCTOR){
+            //allocate memory for constructor
+            vmWriter.writePush(Segment.CONSTANT, classTable.varCount(Kind.FIELD));
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+        else if(subroutineKind == Keyword.METHOD){
+            // set THIS on RAM to the given object
+            vmWriter.writePush(Segment.ARGUMENT, 0);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+        if(folding){
+            countAssignments();
+        }
         compileStatements();
 
         // skip '}'
-        
+        expect('}');
     }
     
     public void compileVarDec() throws IOException{
-        String name, type, kind = "VAR";
+        int type, name;
+        Kind kind = Kind.VAR;
         
         // skip var
 
         // write type
         tokenizer.advance();
-        type = tokenizer.identifier();
+        type = tokenizer.identifierId();
         
         // write varName
         tokenizer.advance();
-        name = tokenizer.identifier();
+        name = tokenizer.identifierId();
         subroutineTable.define(name, type, kind);
 
         // check if more variables exist
@@ -198,7 +280,7 @@ public class CompilationEngine {
             
             //write varName
             tokenizer.advance();
-            name = tokenizer.identifier();
+            name = tokenizer.identifierId();
             subroutineTable.define(name, type, kind);
             tokenizer.advance();
             
@@ -213,19 +295,19 @@ public class CompilationEngine {
 
         while(tokenizer.tokenType()== Type.KEYWORD && TypesMap.isStatement(tokenizer.keyword())){
             switch(tokenizer.keyword()){
-                case "let":
+                case LET:
                     compileLet();
                     break;
-                case "if":
+                case IF:
                     compileIf();
                     break;
-                case "while":
+                case WHILE:
                     compileWhile();
                     break;
-                case "do":
+                case DO:
                     compileDo();
                     break;
-                case "return":
+                case RETURN:
                     compileReturn();
                     break;
             }
@@ -234,7 +316,7 @@ public class CompilationEngine {
     }
     
     public void compileLet() throws IOException{
-        String segment = "";
+        Segment segment = null;
         int index = 0;
         boolean isArray = false;
         
@@ -242,14 +324,16 @@ public class CompilationEngine {
         tokenizer.advance();
         
         // store VarName
-        if(subroutineTable.contains(tokenizer.identifier())){
-            segment = getSubroutineVarSegment(tokenizer.identifier());
-            index = subroutineTable.indexOf(tokenizer.identifier());
+        int name = tokenizer.identifierId();
+        if(subroutineTable.contains(name)){
+            segment = getSubroutineVarSegment(name);
+            index = subroutineTable.indexOf(name);
         }
-        else if(classTable.contains(tokenizer.identifier())){
-            segment = getClassVarSegment(tokenizer.identifier());
-            index = classTable.indexOf(tokenizer.identifier());
+        else if(classTable.contains(name)){
+            segment = getClassVarSegment(name);
+            index = classTable.indexOf(name);
         }
+        else throw undeclared(name);
 
         // check if '[' exists
         tokenizer.advance();
@@ -265,30 +349,38 @@ public class CompilationEngine {
             compileExpression();
             
             //skip ']'
+            expect(']');
 
             //get entry adress of array
-            vmWriter.writeArithmetic("add");
+            vmWriter.writeArithmetic(Command.ADD);
 
             // get next token (=)
             tokenizer.advance();
         }
 
         // skip '='
+        expect('=');
         tokenizer.advance();
 
         // compute expression
         compileExpression();
 
         //skip ';'
+        expect(';');
 
         //advance to next token
         tokenizer.advance();
 
+        // a local which is assigned once, outside of any if or while, keeps this value for the rest of the subroutine
+        if(!isArray && isConstant && statementDepth == 0 && subroutineTable.kindOf(name) == Kind.VAR && assignmentsOf(name) == 1){
+            setConstant(name, constantValue);
+        }
+
         if(isArray){
-            vmWriter.writePop("temp", 0);
-            vmWriter.writePop("pointer", 1);
-            vmWriter.writePush("temp", 0);
-            vmWriter.writePop("that", 0);
+            vmWriter.writePop(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.POINTER, 1);
+            vmWriter.writePush(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.THAT, 0);
         }
         else {
             vmWriter.writePop(segment, index);
@@ -304,43 +396,53 @@ public class CompilationEngine {
 
         // skip '('
         tokenizer.advance();
+        expect('(');
 
         // compute expression
         tokenizer.advance();
         compileExpression();
 
         //negate expression
-        vmWriter.writeArithmetic("not");
+        vmWriter.writeArithmetic(Command.NOT);
         
         // if-goto
         vmWriter.writeIf("L"+ currentLabel);
 
         // skip ')'
+        expect(')');
 
         //skip '{'
         tokenizer.advance();
+        expect('{');
 
         // write statements
         tokenizer.advance();
+        statementDepth++;
         compileStatements();
+        statementDepth--;
 
         // skip '}'
+        expect('}');
 
         //check if else exists
         tokenizer.advance();
-        if(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword().equals("else")){
+        if(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword() == Keyword.ELSE){
             vmWriter.writeGoTo("L" + (currentLabel+1));
             vmWriter.writeLabel("L" + currentLabel++);
             //skip else
 
             // skip '{'
             tokenizer.advance();
+            expect('{');
 
             // write statements
             tokenizer.advance();
+            statementDepth++;
             compileStatements();
+            statementDepth--;
 
             // skip '}'
+            expect('}');
 
             // read next token
             tokenizer.advance();
@@ -360,27 +462,33 @@ public class CompilationEngine {
         
         //skip '('
         tokenizer.advance();
+        expect('(');
 
         //write expression
         tokenizer.advance();
         compileExpression();
 
         //negate expression
-        vmWriter.writeArithmetic("not");
+        vmWriter.writeArithmetic(Command.NOT);
         
         // if-goto
         vmWriter.writeIf("L"+ (currentLabel+1));
 
         //skip ')'
+        expect(')');
 
         //skip '{'
         tokenizer.advance();
+        expect('{');
 
         //write statements
         tokenizer.advance();
+        statementDepth++;
         compileStatements();
+        statementDepth--;
 
         //skip '}'
+        expect('}');
 
         //Go to start of the loop
         vmWriter.writeGoTo("L" + currentLabel++);
@@ -393,13 +501,13 @@ public class CompilationEngine {
     }
     
     public void compileDo() throws IOException{
-        String name = "";
+        int name;
         //skip do
 
     //write subroutine call
         //store subroutineName | className | varName
         tokenizer.advance();
-        name = tokenizer.identifier();
+        name = tokenizer.identifierId();
 
         //read next '.' | ')'
         tokenizer.advance();
@@ -407,12 +515,13 @@ public class CompilationEngine {
 
         //skip ';'
         tokenizer.advance();
+        expect(';');
 
         //get the next token
         tokenizer.advance();
 
         //get rid of the returned value
-        vmWriter.writePop("temp", 0);
+        vmWriter.writePop(Segment.TEMP, 0);
 
     }
 
@@ -427,10 +536,11 @@ public class CompilationEngine {
             compileExpression();
         }
         else{
-            vmWriter.writePush("constant", 0);
+            vmWriter.writePush(Segment.CONSTANT, 0);
         }
 
         //skip ';'
+        expect(';');
 
         //get next token
         tokenizer.advance();
@@ -441,9 +551,12 @@ public class CompilationEngine {
 
     public void compileExpression() throws IOException{
         char op = 0;
+        int start = vmWriter.position();
 
         //write term
         compileTerm();
+        boolean constant = isConstant;
+        int value = constantValue;
 
         //check if operation exists
         while(tokenizer.tokenType() == Type.SYMBOL && TypesMap.containsOperation(tokenizer.symbol())){
@@ -452,29 +565,45 @@ public class CompilationEngine {
 
             //write term
             tokenizer.advance();
+            int rightStart = vmWriter.position();
             compileTerm();
 
+            // replace the code of an operation on two constants with its result
+            if(constant && isConstant && canFold(op, value, constantValue)){
+                value = fold(op, value, constantValue);
+                vmWriter.truncate(start);
+                writeConstant(value);
+                countEliminatedCall(op);
+                continue;
+            }
+            if(reduceStrength && (op == '*' || op == '/') && writeReducedStrength(op, constant, value, start, rightStart)){
+                countEliminatedCall(op);
+                constant = false;
+                continue;
+            }
+            constant = false;
+
             switch (op){
                 case '+':
-                    vmWriter.writeArithmetic("add");
+                    vmWriter.writeArithmetic(Command.ADD);
                     break;
                 case '-':
-                    vmWriter.writeArithmetic("sub");
+                    vmWriter.writeArithmetic(Command.SUB);
                     break;
                 case '&':
-                    vmWriter.writeArithmetic("and");
+                    vmWriter.writeArithmetic(Command.AND);
                     break;
                 case '|':
-                    vmWriter.writeArithmetic("or");
+                    vmWriter.writeArithmetic(Command.OR);
                     break;
                 case '<':
-                    vmWriter.writeArithmetic("lt");
+                    vmWriter.writeArithmetic(Command.LT);
                     break;
                 case '>':
-                    vmWriter.writeArithmetic("gt");
+                    vmWriter.writeArithmetic(Command.GT);
                     break;
                 case '=':
-                    vmWriter.writeArithmetic("eq");
+                    vmWriter.writeArithmetic(Command.EQ);
                     break;
                 case '*':
                     vmWriter.writeCall("Math.multiply", 2);
@@ -484,34 +613,36 @@ public class CompilationEngine {
                     break;
             }
         }
+        isConstant = constant;
+        constantValue = value;
     }
 
     public void compileTerm() throws IOException{
-        String segment = "";
+        Segment segment = null;
         int index = 0;
+        isConstant = false;
 
         // write intConst | stringConst | keyConst | varName | subroutineName | '(' | unaryOp
         if(tokenizer.tokenType() == Type.KEYWORD){ 
-            boolean neg = false;
             // case keyConst
             switch(tokenizer.keyword()){
-                case "true":
-                    segment = "constant";
-                    index = 1;
-                    neg = true;
+                case TRUE:
+                    writeConstant(-1);
+                    isConstant = folding;
+                    constantValue = -1;
                     break;
-                case "false": 
-                case "null":
-                    segment = "constant";
-                    index = 0;
+                case FALSE: 
+                case NULL:
+                    writeConstant(0);
+                    isConstant = folding;
+                    constantValue = 0;
                     break;
-                case "this":
-                    segment = "pointer";
-                    index = 0;
+                case THIS:
+                    vmWriter.writePush(Segment.POINTER, 0);
                     break;
+                default:
+                    throw expectedTerm();
             }
-            vmWriter.writePush(segment, index);
-            if(neg) vmWriter.writeArithmetic("neg");
 
             //get next token
             tokenizer.advance();
@@ -525,28 +656,44 @@ public class CompilationEngine {
                 compileExpression();
 
                 //skip ')'
+                expect(')');
 
                 //get next token
                 tokenizer.advance();
             }
-            else {
+            else if(tokenizer.symbol() == '-' || tokenizer.symbol() == '~'){
                 char symbol = tokenizer.symbol();
+                int start = vmWriter.position();
                 
                 // write term
                 tokenizer.advance();
                 compileTerm();
 
-                if(symbol == '-'){
-                    vmWriter.writeArithmetic("neg");
+                if(isConstant){
+                    constantValue = (short)((symbol == '-') ? -constantValue : ~constantValue);
+                    vmWriter.truncate(start);
+                    writeConstant(constantValue);
                 }
-                else vmWriter.writeArithmetic("not");
+                else if(symbol == '-'){
+                    vmWriter.writeArithmetic(Command.NEG);
+                }
+                else vmWriter.writeArithmetic(Command.NOT);
             }
+            else throw expectedTerm();
+        }
+        else if(tokenizer.tokenType() == Type.STRING_CONST){
+            writeString(tokenizer.token());
+
+            //get next token
+            tokenizer.advance();
         }
         else{
-            String term = tokenizer.identifier();
-            if(StringOps.isNum(term)){
+            int term = tokenizer.identifierId();
+            if(tokenizer.tokenType() == Type.INT_CONST){
                 // case intConst
-                vmWriter.writePush("constant", Integer.parseInt(term));
+                vmWriter.writePush(Segment.CONSTANT, tokenizer.intVal());
+                isConstant = folding;
+                constantValue = tokenizer.intVal();
 
                 //get next token
                 tokenizer.advance();
@@ -559,21 +706,30 @@ public class CompilationEngine {
                     if(tokenizer.symbol() == '(' || tokenizer.symbol() == '.'){
                         //write subroutine call 
                         compileSubroutineCall(term);
+                        isConstant = false;
                          
                          //get next token
                          tokenizer.advance();
                     }
                     else {
                         // case varName
-                        if(subroutineTable.contains(term)){
-                            segment = getSubroutineVarSegment(term);
-                            index = subroutineTable.indexOf(term);
+                        if(hasConstant(term)){
+                            constantValue = constantValues[term];
+                            writeConstant(constantValue);
+                            isConstant = true;
                         }
-                        else if(classTable.contains(term)){
-                            segment = getClassVarSegment(term);
-                            index = classTable.indexOf(term);
+                        else{
+                            if(subroutineTable.contains(term)){
+                                segment = getSubroutineVarSegment(term);
+                                index = subroutineTable.indexOf(term);
+                            }
+                            else if(classTable.contains(term)){
+                                segment = getClassVarSegment(term);
+                                index = classTable.indexOf(term);
+                            }
+                            else throw undeclared(term);
+                            vmWriter.writePush(segment,index);
                         }
-                        vmWriter.writePush(segment,index);
                         
                         if(tokenizer.symbol() == '[') {
                             //skip '['
@@ -583,25 +739,28 @@ public class CompilationEngine {
                             compileExpression();
         
                             //skip ']'
-                            
+                            expect(']');
+
                             //get the array address in the ram
-                            vmWriter.writeArithmetic("add");
+                            vmWriter.writeArithmetic(Command.ADD);
                             
                             //get the content in the address and store in temp 0
-                            vmWriter.writePop("pointer", 1);
-                            vmWriter.writePush("that", 0);
+                            vmWriter.writePop(Segment.POINTER, 1);
+                            vmWriter.writePush(Segment.THAT, 0);
+                            isConstant = false;
                             
                             //get next token
                             tokenizer.advance();
                         }
                     }
                 }
+                else throw error("expected a symbol after " + tokenizer.names.name(term) + " but found '" + tokenizer.token() + "'");
             }
         }
 
     }
 
-    private void compileSubroutineCall(String name) throws IOException{
+    private void compileSubroutineCall(int name) throws IOException{
 
         String funcCall = "";
         int varCount = 0;
@@ -612,20 +771,20 @@ public class CompilationEngine {
 
             //check if name is variable
             if(subroutineTable.contains(name)){
-                funcCall = subroutineTable.typeOf(name) + ".";
+                funcCall = tokenizer.names.name(subroutineTable.typeOf(name)) + ".";
                 varCount++;
 
                 //push the current object
                 vmWriter.writePush(getSubroutineVarSegment(name), subroutineTable.indexOf(name));
             }
             else if(classTable.contains(name)){
-                funcCall = classTable.typeOf(name) + ".";
+                funcCall = tokenizer.names.name(classTable.typeOf(name)) + ".";
                 varCount++;
 
                 //push the current object
                 vmWriter.writePush(getClassVarSegment(name), classTable.indexOf(name));
             }
-            else funcCall = name + ".";
+            else funcCall = tokenizer.names.name(name) + ".";
 
             //read subroutineName
             tokenizer.advance();
@@ -634,15 +793,17 @@ public class CompilationEngine {
 
             //get next token
             tokenizer.advance();
+            expect('(');
         }
         else{
             //skip '('
-            
-            funcCall = className + "." + name;
+            expect('(');
+
+            funcCall = className + "." + tokenizer.names.name(name);
             varCount++;
 
             //push the current object
-            vmWriter.writePush(classTable.kindOf(name), classTable.indexOf(name));
+            vmWriter.writePush(Segment.POINTER, 0);
         }
 
         //write expression list
@@ -670,66 +831,275 @@ public class CompilationEngine {
                 counter++;
                 //write expression
                 compileExpression();
+                if(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != ',') expect(')');
             }
         }
         return counter;
     }
 
-    private String getClassVarSegment(String name){
-        if(classTable.kindOf(name)== "FIELD"){
-            return "this";
+    /**
+     * Pushes a 16 bit value, the VM can only push constants between 0 and 32767.
+     */
+    void writeConstant(int value) throws IOException{
+        if(value >= 0){
+            vmWriter.writePush(Segment.CONSTANT, value);
+        }
+        else if(value == -32768){
+            vmWriter.writePush(Segment.CONSTANT, 32767);
+            vmWriter.writeArithmetic(Command.NOT);
+        }
+        else{
+            vmWriter.writePush(Segment.CONSTANT, -value);
+            vmWriter.writeArithmetic(Command.NEG);
+        }
+    }
+
+    /**
+     * Pushes a new String with the given text, or with internStrings the one kept in the static variable of the literal.
+     */
+    void writeString(CharSequence text) throws IOException{
+        if(!internStrings || text.length() > internMaxLength){
+            writeNewString(text);
+            return;
+        }
+        String literal = text.toString();
+        Integer slot = literalSlots.get(literal);
+        if(slot == null){
+            if(literalSlots.size() == MAX_INTERNED){
+                writeNewString(text);
+                return;
+            }
+            slot = classTable.varCount(Kind.STATIC) + literalSlots.size();
+            literalSlots.put(literal, slot);
         }
-        return "static";
+
+        // a String is never at address 0, so a static which is still 0 was not built yet
+        String built = "L" + labelCount++;
+        vmWriter.writePush(Segment.STATIC, slot);
+        vmWriter.writeIf(built);
+        writeNewString(text);
+        vmWriter.writePop(Segment.STATIC, slot);
+        vmWriter.writeLabel(built);
+        vmWriter.writePush(Segment.STATIC, slot);
     }
 
-    private String getSubroutineVarSegment(String name){
-        if(subroutineTable.kindOf(name)== "ARG"){
-            return "argument";
+    private void writeNewString(CharSequence text) throws IOException{
+        vmWriter.writeLiteral(text.length());
+        vmWriter.writeCall("String.new", 1);
+        for(int i = 0; i < text.length(); i++){
+            vmWriter.writePush(Segment.CONSTANT, text.charAt(i));
+            vmWriter.writeCall("String.appendChar", 2);
         }
-        return "local";
     }
 
-    public void close() throws IOException{
-        vmWriter.close();
-        tokenizer.close();
-    }
-
-    /* public void writeNextToken() throws IOException{
-        String type;
-        switch (tokenizer.tokenType()){
-            case KEYWORD:
-                type = "keyword";
-                writer.write( StringOps.repeat("    ", tabCounter) + "<" + type + "> " + tokenizer.keyword() + " </" + type + ">\n");
-                break;
-            case SYMBOL:
-                type = "symbol";
-                String content = tokenizer.symbol() + "";
-                if(TypesMap.containsXmlOp(tokenizer.symbol())){
-                    content = TypesMap.getXmlOp(tokenizer.symbol());
-                }
-                writer.write(StringOps.repeat("    ", tabCounter) + "<" + type + "> " + content + " </" + type + ">\n");
-                break;
-            case IDENTIFIER:
-                type = "identifier";
-                String name = tokenizer.identifier();
-                if(subroutineTable.contains(name)){ 
-                    type += " subroutine " + subroutineTable.kindOf(name) + " " + subroutineTable.indexOf(name);
-                    type += (isVarUsed) ? " Used" : " Defined";
-                }
-                else if(classTable.contains(name)) {
-                    type += " class " + classTable.kindOf(name) + " " + classTable.indexOf(name);
-                    type += (isVarUsed) ? " Used" : " Defined";
+    /**
+     * Replaces the Math.multiply or Math.divide call of an operation which has a constant operand with cheaper code.
+     * The code of the left operand starts at start and the code of the right one at rightStart.
+     * Returns false if the operation still needs the call.
+     */
+    boolean writeReducedStrength(char op, boolean leftConstant, int leftValue, int start, int rightStart) throws IOException{
+        if(op == '/'){
+            if(!isConstant || (constantValue != 1 && constantValue != -1)) return false;
+            vmWriter.truncate(rightStart);
+            if(constantValue == -1) vmWriter.writeArithmetic(Command.NEG);
+            return true;
+        }
+
+        int multiplier;
+        if(isConstant && isCheapMultiplier(constantValue)){
+            multiplier = constantValue;
+            vmWriter.truncate(rightStart);
+        }
+        else if(leftConstant && isCheapMultiplier(leftValue)){
+            multiplier = leftValue;
+            vmWriter.remove(start, rightStart);
+        }
+        else return false;
+
+        writeMultiply(multiplier, start);
+        return true;
+    }
+
+    static boolean isCheapMultiplier(int value){
+        int abs = Math.abs(value);
+        return value != -32768 && (abs <= 255 || Integer.bitCount(abs) == 1);
+    }
+
+    /**
+     * Multiplies the value on top of the stack, written from start, by a constant with additions. 
+     * The product is built from the highest bit of the multiplier down, doubling it for every bit 
+     * and adding the operand, kept in temp 1, for every bit which is set.
+     */
+    void writeMultiply(int multiplier, int start) throws IOException{
+        int abs = Math.abs(multiplier);
+        if(abs == 0){
+            // a single push has no side effects, so it can be dropped instead of popped
+            if(vmWriter.position() - start == 1 && vmWriter.commandAt(start) == Command.PUSH){
+                vmWriter.truncate(start);
+            }
+            else vmWriter.writePop(Segment.TEMP, 1);
+            vmWriter.writePush(Segment.CONSTANT, 0);
+            return;
+        }
+
+        if(Integer.bitCount(abs) > 1){
+            vmWriter.writePop(Segment.TEMP, 1);
+            vmWriter.writePush(Segment.TEMP, 1);
+        }
+        for(int bit = Integer.highestOneBit(abs) >> 1; bit != 0; bit >>= 1){
+            vmWriter.writePop(Segment.TEMP, 2);
+            vmWriter.writePush(Segment.TEMP, 2);
+            vmWriter.writePush(Segment.TEMP, 2);
+            vmWriter.writeArithmetic(Command.ADD);
+            if((abs & bit) != 0){
+                vmWriter.writePush(Segment.TEMP, 1);
+                vmWriter.writeArithmetic(Command.ADD);
+            }
+        }
+        if(multiplier < 0) vmWriter.writeArithmetic(Command.NEG);
+    }
+
+    void countEliminatedCall(char op){
+        if(op == '*') multiplyCallsEliminated++;
+        else if(op == '/') divideCallsEliminated++;
+    }
+
+    /**
+     * Returns false for the divisions which are left to Math.divide at runtime: by zero and -32768 / -1.
+     */
+    static boolean canFold(char op, int left, int right){
+        return op != '/' || (right != 0 && !(left == -32768 && right == -1));
+    }
+
+    /**
+     * Returns the result of a binary operation on two constants, wrapped to 16 bits like on the Hack platform.
+     */
+    static int fold(char op, int left, int right){
+        switch(op){
+            case '+':
+                return (short)(left + right);
+            case '-':
+                return (short)(left - right);
+            case '*':
+                return (short)(left * right);
+            case '/':
+                return (short)(left / right);
+            case '&':
+                return left & right;
+            case '|':
+                return left | right;
+            case '<':
+                return (left < right) ? -1 : 0;
+            case '>':
+                return (left > right) ? -1 : 0;
+            default:
+                return (left == right) ? -1 : 0;
+        }
+    }
+
+    /**
+     * Counts the assignments to every variable in the statements of the current subroutine body. 
+     * Reads ahead with a fork of the tokenizer, from the current token up to the '}' which closes the body.
+     */
+    private void countAssignments() throws IOException{
+        JackTokenizer scan = tokenizer.fork();
+        int depth = 0;
+        while(true){
+            if(scan.tokenType() == Type.SYMBOL && (scan.symbol() == '{' || scan.symbol() == '}')){
+                if(scan.symbol() == '{') depth++;
+                else if(depth-- == 0) return;
+                scan.advance();
+            }
+            else if(scan.tokenType() == Type.KEYWORD && scan.keyword() == Keyword.LET){
+                scan.advance();
+                int name = scan.identifierId();
+
+                // an assignment to an array element does not change the variable
+                scan.advance();
+                if(scan.tokenType() != Type.SYMBOL || scan.symbol() != '['){
+                    countAssignment(name);
                 }
-                writer.write(StringOps.repeat("    ", tabCounter) + "<" + type + "> " + tokenizer.identifier() + " </" + type + ">\n");
-                break;
-            case INT_CONST:
-                type = "integerConstant";
-                writer.write(StringOps.repeat("    ", tabCounter) + "<" + type + "> " + tokenizer.intVal() + " </" + type + ">\n");
-                break;
-            case STRING_CONST:
-                type = "stringConstant";
-                writer.write(StringOps.repeat("    ", tabCounter) + "<" + type + "> " + tokenizer.stringVal() + " </" + type + ">\n");
-                break;
-        }
-    } */
+            }
+            else scan.advance();
+        }
+    }
+
+    void countAssignment(int name){
+        if(name >= assignStamps.length){
+            assignStamps = Arrays.copyOf(assignStamps, Math.max(name + 1, assignStamps.length * 2));
+            assignCounts = Arrays.copyOf(assignCounts, assignStamps.length);
+        }
+        if(assignStamps[name] != subroutineCount){
+            assignStamps[name] = subroutineCount;
+            assignCounts[name] = 0;
+        }
+        assignCounts[name]++;
+    }
+
+    int assignmentsOf(int name){
+        return (name < assignStamps.length && assignStamps[name] == subroutineCount) ? assignCounts[name] : 0;
+    }
+
+    void setConstant(int name, int value){
+        if(name >= constantStamps.length){
+            constantStamps = Arrays.copyOf(constantStamps, Math.max(name + 1, constantStamps.length * 2));
+            constantValues = Arrays.copyOf(constantValues, constantStamps.length);
+        }
+        constantStamps[name] = subroutineCount;
+        constantValues[name] = value;
+    }
+
+    boolean hasConstant(int name){
+        return name >= 0 && name < constantStamps.length && constantStamps[name] == subroutineCount;
+    }
+
+    /**
+     * Throws the error of a missing symbol unless the current token is that symbol.
+     */
+    void expect(char symbol) throws IOException{
+        if(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != symbol){
+            throw error("expected '" + symbol + "' but found '" + tokenizer.token() + "'");
+        }
+    }
+
+    IOException expectedTerm(){
+        return error("expected a term but found '" + tokenizer.token() + "'");
+    }
+
+    IOException undeclared(int name){
+        return error("undeclared variable " + tokenizer.names.name(name) + " in " + className + "." + funcName);
+    }
+
+    /**
+     * Returns the error of a mistake in the source, at the line of the current token if line() knows it.
+     */
+    IOException error(String message){
+        int line = line();
+        return new IOException((line > 0) ? "line " + line + ": " + message : message);
+    }
+
+    /**
+     * Returns the line of the current token, or 0 if the code being written has no known place in the source.
+     */
+    int line(){
+        return tokenizer.lineOf(tokenizer.tokenStart);
+    }
+
+    Segment getClassVarSegment(int name){
+        return classTable.kindOf(name).segment;
+    }
+
+    Segment getSubroutineVarSegment(int name){
+        return subroutineTable.kindOf(name).segment;
+    }
+
+    public void close() throws IOException{
+        // a pipelined tokenizer's producer waits for the parser until the tokenizer is closed
+        try{
+            vmWriter.close();
+        }
+        finally{
+            tokenizer.close();
+        }
+    }
 }
@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which .jack files were compiled to which .vm output, so unchanged files can be skipped.
+ * An entry is keyed by a hash of the source, the compiler version and the options which change the output,
+ * and records a hash of the .vm file written for it. The entries are kept in an index file in the output directory.
+ */
+public class CompileCache {
+
+    static final String INDEX_NAME = ".jackcache";
+    static final String HEADER = "# jack compile cache 1";
+
+    class Entry{
+        String key;
+        String outputHash;
+        long outputSize;
+
+        Entry(String key, String outputHash, long outputSize) {
+            this.key = key;
+            this.outputHash = outputHash;
+            this.outputSize = outputSize;
+        }
+    }
+
+    File root;
+    File index;
+    String salt;
+    boolean verify;
+    Map<String, Entry> entries;
+
+    AtomicLong hits, misses, corrupt, bytesSaved;
+
+    /**
+     * Loads the index of the given directory. When verify is set, the .vm file of every hit is hashed 
+     * and compared to the hash recorded when it was written.
+     */
+    public CompileCache(File root, CompilerOptions options, boolean verify) throws IOException {
+        this.root = root;
+        this.index = new File(root, INDEX_NAME);
+        this.salt = "code " + CompilationEngine.CODE_VERSION + "|" + options.signature();
+        this.verify = verify;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.corrupt = new AtomicLong();
+        this.bytesSaved = new AtomicLong();
+        load();
+    }
+
+    private void load() throws IOException{
+        if(!index.isFile()) return;
+        try(BufferedReader reader = new BufferedReader(new FileReader(index))){
+            if(!HEADER.equals(reader.readLine())) return;
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] parts = line.split(" ", 4);
+                if(parts.length < 4) continue;
+                entries.put(parts[3], new Entry(parts[0], parts[1], Long.parseLong(parts[2])));
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the given source contents.
+     */
+    public String keyOf(byte[] source){
+        MessageDigest digest = newDigest();
+        digest.update(salt.getBytes());
+        digest.update((byte)0);
+        digest.update(source);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns whether the output of the source is the one written for the same key, and counts a hit or a miss.
+     */
+    public boolean isUpToDate(File source, String key, File output, long sourceSize) throws IOException{
+        Entry entry = entries.get(pathOf(source));
+        boolean sameSource = entry != null && entry.key.equals(key);
+        boolean upToDate = sameSource && output.isFile() && output.length() == entry.outputSize;
+        if(sameSource && verify && (!upToDate || !entry.outputHash.equals(hashOf(output)))){
+            // the source did not change but its output was changed or deleted since it was written
+            corrupt.incrementAndGet();
+            upToDate = false;
+        }
+
+        if(upToDate){
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(sourceSize);
+        }
+        else misses.incrementAndGet();
+        return upToDate;
+    }
+
+    /**
+     * Records that the source with the given key was compiled to output.
+     */
+    public void update(File source, String key, File output) throws IOException{
+        entries.put(pathOf(source), new Entry(key, hashOf(output), output.length()));
+    }
+
+    public void remove(File source){
+        entries.remove(pathOf(source));
+    }
+
+    /**
+     * Writes the index, replacing the old one only once the new one is complete. The new index is written to a
+     * temporary file of its own, so two compilers saving into the same directory never write the same file.
+     */
+    public void save() throws IOException{
+        File temp = Files.createTempFile(root.toPath(), INDEX_NAME, ".tmp").toFile();
+        try{
+            try(BufferedWriter writer = new BufferedWriter(new FileWriter(temp))){
+                writer.write(HEADER + "\n");
+                for(Map.Entry<String, Entry> e : entries.entrySet()){
+                    Entry entry = e.getValue();
+                    writer.write(entry.key + " " + entry.outputHash + " " + entry.outputSize + " " + e.getKey() + "\n");
+                }
+            }
+            Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally{
+            temp.delete();
+        }
+    }
+
+    public String report(){
+        String report = "cache: " + hits + " hits, " + misses + " misses, " + bytesSaved + " source bytes not recompiled";
+        if(verify){
+            report += ", " + corrupt + " corrupt outputs";
+        }
+        return report;
+    }
+
+    private String pathOf(File source){
+        return root.getAbsoluteFile().toPath().relativize(source.getAbsoluteFile().toPath()).toString();
+    }
+
+    private static String hashOf(File file) throws IOException{
+        return toHex(newDigest().digest(Files.readAllBytes(file.toPath())));
+    }
+
+    private static MessageDigest newDigest(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The outcome of compiling a class with JackCompiler: its VM code, or the diagnostics which stopped it.
+ */
+public class CompileResult {
+
+    final String className;
+    final VMCode code;
+    final List<Diagnostic> diagnostics;
+
+    CompileResult(String className, VMCode code, List<Diagnostic> diagnostics) {
+        this.className = className;
+        this.code = code;
+        this.diagnostics = diagnostics;
+    }
+
+    public boolean succeeded(){
+        return code != null;
+    }
+
+    /**
+     * Returns the name of the class, empty if the compilation stopped before it.
+     */
+    public String className(){
+        return className;
+    }
+
+    public List<Diagnostic> diagnostics(){
+        return diagnostics;
+    }
+
+    /**
+     * Returns the instructions of the class, or null if the compilation failed.
+     */
+    public VMCode code(){
+        return code;
+    }
+
+    /**
+     * Appends the .vm text of the class to out.
+     *
+     * @throws IllegalStateException if the compilation failed, nothing is written then
+     */
+    public void writeTo(Appendable out) throws IOException{
+        checkSucceeded();
+        if(out instanceof StringBuilder){
+            code.writeTo((StringBuilder)out, 0, code.size());
+        }
+        else out.append(toString());
+    }
+
+    /**
+     * Puts the .vm text of the class into out as ASCII bytes.
+     *
+     * @throws BufferOverflowException if out has not enough room, out is left unchanged then
+     * @throws IllegalStateException if the compilation failed, nothing is written then
+     */
+    public void writeTo(ByteBuffer out){
+        checkSucceeded();
+        String text = toString();
+        if(out.remaining() < text.length()){
+            throw new BufferOverflowException();
+        }
+        for(int i = 0; i < text.length(); i++){
+            out.put((byte)text.charAt(i));
+        }
+    }
+
+    private void checkSucceeded(){
+        if(code == null){
+            throw new IllegalStateException("the compilation of " + (className.isEmpty() ? "the class" : className)
+                + " failed, it has no VM code");
+        }
+    }
+
+    /**
+     * Returns the .vm text of the class, or the diagnostics one per line if the compilation failed.
+     */
+    public String toString(){
+        StringBuilder text = new StringBuilder();
+        if(code != null){
+            code.writeTo(text, 0, code.size());
+        }
+        else{
+            for(Diagnostic diagnostic : diagnostics){
+                text.append(diagnostic).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,365 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a warm compiler running and compiles the requests of clients on a localhost port or a unix domain socket,
+ * so a build which compiles many times pays for the JVM start and the JIT only once.
+ *
+ * A connection carries any number of requests, one after the other. A request starts with a command line:
+ *   compile        followed by a line of options and a line with the path of a .jack file or directory,
+ *                  the .vm files are written next to the sources
+ *   source         followed by a line of options, a line with the byte length of the source and the UTF-8 source,
+ *                  the VM code is sent back
+ *   stats          the request counters and latency percentiles
+ * Every response is a line "ok <length>" or "error <length>" followed by that many bytes of UTF-8 text.
+ */
+public class CompileServer {
+
+    static final int DEFAULT_PORT = 7474;
+
+    // the latencies of this many most recent requests are kept for the percentiles
+    static final int LATENCY_SAMPLES = 4096;
+
+    // compile requests for the same directory write the same .vm files and cache index, they take turns on its lock
+    static final ConcurrentHashMap<File, Object> directoryLocks = new ConcurrentHashMap<File, Object>();
+
+    CompilerOptions options;
+
+    // connections only read requests and write responses, the compiling is done by the fixed pool of workers
+    ExecutorService connections;
+    ExecutorService workers;
+
+    AtomicLong requests, failures;
+    long[] latencies;
+    long latencyCount;
+
+    public CompileServer(CompilerOptions options) {
+        this.options = options;
+        this.connections = Executors.newCachedThreadPool();
+        this.workers = Executors.newFixedThreadPool(options.threads);
+        this.requests = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.latencies = new long[LATENCY_SAMPLES];
+        this.latencyCount = 0;
+    }
+
+    static SocketAddress addressOf(CompilerOptions options){
+        if(options.socket != null){
+            return UnixDomainSocketAddress.of(options.socket.toPath());
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port);
+    }
+
+    /**
+     * Accepts connections until the process is stopped.
+     */
+    public void run() throws IOException{
+        SocketAddress address = addressOf(options);
+        ServerSocketChannel server = ServerSocketChannel.open(options.socket != null ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        try{
+            if(options.socket != null){
+                // a socket file left by a server which did not stop cleanly
+                Files.deleteIfExists(options.socket.toPath());
+            }
+            server.bind(address);
+            System.out.println("compile server listening on " + address + " with " + options.threads + " workers");
+            while(true){
+                SocketChannel connection = server.accept();
+                connections.execute(() -> serve(connection));
+            }
+        }
+        finally{
+            server.close();
+            connections.shutdownNow();
+            workers.shutdownNow();
+            if(options.socket != null){
+                Files.deleteIfExists(options.socket.toPath());
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection){
+        try(SocketChannel channel = connection){
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            String command;
+            while((command = readLine(in)) != null){
+                long start = System.nanoTime();
+                boolean ok = true;
+                String payload;
+                try{
+                    payload = handle(command, in);
+                }
+                catch(CompileException e){
+                    ok = false;
+                    payload = e.getMessage();
+                }
+                writeResponse(out, ok, payload);
+                if(!command.equals("stats")){
+                    record(System.nanoTime() - start, ok);
+                }
+            }
+        }
+        catch(IOException e){
+            // the client went away in the middle of a request
+        }
+    }
+
+    /**
+     * A request which was read but could not be compiled, its message is sent back as the response.
+     */
+    static class CompileException extends Exception {
+        static final long serialVersionUID = 1L;
+
+        CompileException(String message) {
+            super(message);
+        }
+    }
+
+    private String handle(String command, InputStream in) throws IOException, CompileException{
+        switch(command){
+            case "compile": {
+                String arguments = readLine(in);
+                String path = readLine(in);
+                CompilerOptions request = requestOptions(arguments, path);
+                return submit(() -> compilePath(request));
+            }
+            case "source": {
+                String arguments = readLine(in);
+                int length = parseLength(readLine(in));
+                byte[] source = in.readNBytes(length);
+                if(source.length < length){
+                    throw new IOException("unexpected end of the source");
+                }
+                CompilerOptions request = requestOptions(arguments, "-");
+                return submit(() -> compileSource(source, request));
+            }
+            case "stats":
+                return report();
+            default:
+                throw new CompileException("unknown command " + command);
+        }
+    }
+
+    private static int parseLength(String line) throws CompileException{
+        try{
+            return Integer.parseInt(line);
+        }
+        catch(NumberFormatException e){
+            throw new CompileException("bad source length " + line);
+        }
+    }
+
+    interface Job {
+        String run() throws IOException, CompileException;
+    }
+
+    private String submit(Job job) throws CompileException{
+        Future<String> result = workers.submit(() -> {
+            try{
+                return job.run();
+            }
+            catch(IOException e){
+                throw new CompileException(e.getMessage());
+            }
+        });
+        try{
+            return result.get();
+        }
+        catch(ExecutionException e){
+            if(e.getCause() instanceof CompileException){
+                throw (CompileException) e.getCause();
+            }
+            throw new CompileException(e.getCause().toString());
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new CompileException("the server is stopping");
+        }
+    }
+
+    private CompilerOptions requestOptions(String arguments, String source) throws CompileException{
+        if(arguments == null || source == null){
+            throw new CompileException("incomplete request");
+        }
+        // the source goes first so an option missing its value at the end does not take it
+        List<String> args = new ArrayList<String>(Arrays.asList(arguments.trim().split("\\s+")));
+        args.removeIf(String::isEmpty);
+        args.add(0, source);
+        try{
+            CompilerOptions request = CompilerOptions.parse(args.toArray(new String[0]));
+            if(!request.source.getPath().equals(new File(source).getPath())){
+                throw new CompileException("unexpected argument " + request.source);
+            }
+            if(request.wholeProgram || request.bundle != null || request.split != null || request.watch || request.stats
+                || request.syntaxTree || request.server || request.client){
+                throw new CompileException("the server compiles each file on its own, "
+                    + "--whole-program, --link, --asm, --bundle, --split, --watch, --stats and --ast are not supported");
+            }
+            // a request runs on one worker, other requests use the others
+            request.threads = 1;
+            return request;
+        }
+        catch(IllegalArgumentException e){
+            throw new CompileException(e.getMessage());
+        }
+    }
+
+    private static String compilePath(CompilerOptions options) throws IOException, CompileException{
+        if(!options.source.exists()){
+            throw new CompileException("no such file or directory " + options.source);
+        }
+        List<File> files = new ArrayList<File>();
+        JackAnalyzer.collectSources(options.source, files);
+
+        File root = options.source.isDirectory() ? options.source : options.source.getAbsoluteFile().getParentFile();
+        Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        synchronized(directoryLocks.computeIfAbsent(root.getCanonicalFile(), directory -> new Object())){
+            CompileCache cache = null;
+            if(options.cache){
+                cache = new CompileCache(root, options, options.verifyCache);
+            }
+            for(File f : files){
+                JackAnalyzer.compileFile(f, options, cache, failures);
+            }
+            if(cache != null){
+                cache.save();
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        for(String failure : failures){
+            report.append(failure).append('\n');
+        }
+        report.append(files.size() - failures.size()).append(" of ").append(files.size()).append(" files compiled\n");
+        if(!failures.isEmpty()){
+            throw new CompileException(report.toString());
+        }
+        return report.toString();
+    }
+
+    private static String compileSource(byte[] source, CompilerOptions options) throws CompileException{
+        CompileResult result = new JackCompiler(options).compile(new String(source, StandardCharsets.UTF_8));
+        if(!result.succeeded()){
+            throw new CompileException(result.toString());
+        }
+        return result.toString();
+    }
+
+    private synchronized void record(long nanos, boolean ok){
+        requests.incrementAndGet();
+        if(!ok) failures.incrementAndGet();
+        latencies[(int)(latencyCount++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    /**
+     * Returns the request counters and the percentiles of the recent latencies.
+     */
+    synchronized String report(){
+        int samples = (int)Math.min(latencyCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        StringBuilder out = new StringBuilder();
+        out.append("requests: ").append(requests.get()).append(", failed: ").append(failures.get()).append('\n');
+        if(samples > 0){
+            out.append(String.format("latency over the last %d requests: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", samples,
+                percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6, sorted[samples - 1] / 1e6));
+        }
+        return out.toString();
+    }
+
+    private static long percentile(long[] sorted, int percent){
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    /**
+     * Sends the source of the options to a server and prints its response, with --stats also the server counters.
+     * Returns the exit code, 0 when the server compiled everything.
+     */
+    public static int runClient(CompilerOptions options) throws IOException{
+        try(SocketChannel channel = SocketChannel.open(addressOf(options))){
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+
+            if(options.source.getPath().equals("-")){
+                byte[] source = System.in.readAllBytes();
+                out.write(("source\n" + options.requestArguments() + "\n" + source.length + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write(source);
+            }
+            else{
+                out.write(("compile\n" + options.requestArguments() + "\n" + options.source.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            boolean ok = readResponse(in, System.out, System.err);
+
+            if(options.stats){
+                out.write("stats\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                readResponse(in, System.out, System.err);
+            }
+            System.out.flush();
+            return ok ? 0 : 1;
+        }
+    }
+
+    private static boolean readResponse(InputStream in, OutputStream ok, OutputStream error) throws IOException{
+        String status = readLine(in);
+        if(status == null){
+            throw new IOException("the server closed the connection");
+        }
+        int space = status.indexOf(' ');
+        byte[] payload = in.readNBytes(Integer.parseInt(status.substring(space + 1)));
+        boolean isOk = status.substring(0, space).equals("ok");
+        (isOk ? ok : error).write(payload);
+        return isOk;
+    }
+
+    private static void writeResponse(OutputStream out, boolean ok, String payload) throws IOException{
+        if(!payload.isEmpty() && !payload.endsWith("\n")){
+            payload += "\n";
+        }
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        out.write(((ok ? "ok " : "error ") + bytes.length + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Reads a UTF-8 line without its line break, or returns null at the end of the stream.
+     */
+    static String readLine(InputStream in) throws IOException{
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read()) != -1 && b != '\n'){
+            line.write(b);
+        }
+        if(b == -1 && line.size() == 0) return null;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
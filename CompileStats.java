@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the time spent in each phase of every compiled file and prints a summary for --stats.
+ */
+public class CompileStats {
+
+    static final int SLOWEST = 10;
+
+    static class FileStats {
+        String path;
+        long sourceBytes, tokens, instructions;
+        long readNanos, compileNanos, optimizeNanos, writeNanos;
+
+        long totalNanos(){
+            return readNanos + compileNanos + optimizeNanos + writeNanos;
+        }
+    }
+
+    Queue<FileStats> files;
+
+    public CompileStats() {
+        this.files = new ConcurrentLinkedQueue<FileStats>();
+    }
+
+    public void add(FileStats file){
+        files.add(file);
+    }
+
+    /**
+     * Returns the totals of every phase, the throughput over the given wall clock time and the slowest files.
+     * The phase times are summed over all the threads, so with -j they can add up to more than the wall clock time.
+     */
+    public String report(long wallNanos){
+        List<FileStats> sorted = new ArrayList<FileStats>(files);
+        sorted.sort(Comparator.comparingLong(FileStats::totalNanos).reversed());
+
+        long bytes = 0, tokens = 0, instructions = 0, read = 0, compile = 0, optimize = 0, write = 0;
+        for(FileStats file : sorted){
+            bytes += file.sourceBytes;
+            tokens += file.tokens;
+            instructions += file.instructions;
+            read += file.readNanos;
+            compile += file.compileNanos;
+            optimize += file.optimizeNanos;
+            write += file.writeNanos;
+        }
+        long all = Math.max(1, read + compile + optimize + write);
+        double seconds = Math.max(1, wallNanos) / 1e9;
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("stats: %d files, %d bytes, %d tokens, %d instructions in %.1f ms%n",
+            sorted.size(), bytes, tokens, instructions, wallNanos / 1e6));
+        out.append(String.format("  throughput: %.0f files/s, %.0f tokens/s, %.2f MB/s%n",
+            sorted.size() / seconds, tokens / seconds, bytes / seconds / 1e6));
+        appendPhase(out, "read", read, all);
+        appendPhase(out, "tokenize and parse", compile, all);
+        appendPhase(out, "optimize", optimize, all);
+        appendPhase(out, "write", write, all);
+
+        out.append("  slowest files:\n");
+        for(int i = 0; i < sorted.size() && i < SLOWEST; i++){
+            FileStats file = sorted.get(i);
+            out.append(String.format("  %10.2f ms  %s (%d tokens, %d instructions)%n",
+                file.totalNanos() / 1e6, file.path, file.tokens, file.instructions));
+        }
+        return out.toString();
+    }
+
+    private static void appendPhase(StringBuilder out, String phase, long nanos, long all){
+        out.append(String.format("  %-20s %10.2f ms %5.1f%%%n", phase, nanos / 1e6, 100.0 * nanos / all));
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+
+/**
+ * The work the JMH benchmarks of the benchmarks module measure: tokenizing, compiling and writing the VM code of a
+ * corpus made by JackGenerator. Every operation goes over the whole corpus and returns the units it did, so the
+ * benchmarks can report tokens, classes and bytes per second. The benchmarks are in a package of their own, as JMH
+ * requires, and reach this class by reflection, so the methods they use are public.
+ */
+public class CompilerBenchmark {
+
+    char[][] corpus;
+    VMCode[] compiled;
+    CompilerOptions options;
+
+    // results are added here so the JIT cannot drop the measured work
+    long sink;
+
+    public CompilerBenchmark(char[][] corpus, CompilerOptions options) {
+        this.corpus = corpus;
+        this.options = options;
+    }
+
+    /**
+     * Generates a corpus of classes Gen0 .. Gen(classes-1) and returns a benchmark of it. A negative setting keeps
+     * the default of JackGenerator. The options are compiler arguments: -O0, -O1, -O2, --peephole, --compact and --ast.
+     */
+    public static CompilerBenchmark create(int classes, long seed, int subroutines, int statements, int depth, int identifiers,
+        double comments, String arguments){
+        CompilerOptions options = new CompilerOptions();
+        for(String argument : arguments.trim().split("\\s+")){
+            switch(argument){
+                case "": break;
+                case "--peephole": options.peephole = true; break;
+                case "--compact": options.compact = true; break;
+                case "--ast": options.syntaxTree = true; break;
+                case "-O0": options.optimizationLevel = 0; break;
+                case "-O1": options.optimizationLevel = 1; break;
+                case "-O2": options.optimizationLevel = 2; break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + argument);
+            }
+        }
+
+        JackGenerator generator = new JackGenerator(seed);
+        if(subroutines >= 0) generator.subroutines = subroutines;
+        if(statements >= 0) generator.statements = statements;
+        if(depth >= 0) generator.depth = depth;
+        if(identifiers >= 0) generator.identifiers = identifiers;
+        if(comments >= 0) generator.commentDensity = comments;
+
+        char[][] corpus = new char[classes][];
+        for(int i = 0; i < classes; i++){
+            corpus[i] = generator.generateClass("Gen" + i).toCharArray();
+        }
+        return new CompilerBenchmark(corpus, options);
+    }
+
+    /**
+     * Returns a value which depends on all the work done, for the benchmarks to consume.
+     */
+    public long sink(){
+        return sink;
+    }
+
+    /**
+     * Tokenizes every class of the corpus, returns the number of tokens.
+     */
+    public long tokenize() throws IOException{
+        long tokens = 0;
+        for(char[] source : corpus){
+            JackTokenizer tokenizer = new JackTokenizer(source, source.length);
+            while(tokenizer.hasMoreTokens()){
+                tokenizer.advance();
+                tokens++;
+            }
+            sink += tokenizer.tokenId;
+        }
+        return tokens;
+    }
+
+    /**
+     * Compiles every class of the corpus to VM code in memory, returns the number of classes.
+     */
+    public long compile() throws IOException{
+        if(compiled == null){
+            compiled = new VMCode[corpus.length];
+        }
+        for(int i = 0; i < corpus.length; i++){
+            VMWriter writer = new VMWriter(null, options);
+            CompilationEngine engine = CompilationEngine.create(new JackTokenizer(corpus[i], corpus[i].length), writer, options);
+            engine.compileClass();
+            engine.close();
+            compiled[i] = writer.getCode();
+            sink += compiled[i].size();
+        }
+        return corpus.length;
+    }
+
+    /**
+     * Writes the compiled code of every class as .vm text, returns the number of chars written.
+     */
+    public long emit() throws IOException{
+        if(compiled == null){
+            compile();
+        }
+        long bytes = 0;
+        StringBuilder out = new StringBuilder();
+        for(VMCode code : compiled){
+            out.setLength(0);
+            code.writeTo(out, 0, code.size());
+            bytes += out.length();
+        }
+        sink += out.length();
+        return bytes;
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class CompilerOptions {
+
+    File source;
+    int threads;
+    boolean peephole;
+    boolean verbose;
+
+    // remove unreachable code and unused labels and give the labels the shortest names, reporting the bytes saved
+    boolean compact;
+
+    // 0 compiles every expression as written, 1 folds constant expressions,
+    // 2 also replaces multiplications and divisions by constants with cheaper code
+    int optimizationLevel;
+
+    // build every string literal of at most internMaxLength chars only once, into a static variable of its class
+    boolean internStrings;
+    int internMaxLength;
+
+    // skip the files which did not change since they were last compiled, and check the kept outputs
+    boolean cache;
+    boolean verifyCache;
+
+    // keep running and recompile the sources which change
+    boolean watch;
+
+    // print the time spent in each phase and the slowest files
+    boolean stats;
+
+    // tokenize and write large files on threads of their own while they are parsed
+    boolean pipeline;
+
+    // parse every class into a syntax tree before writing its code
+    boolean syntaxTree;
+
+    // write all the classes into one bundle file, a .zip deflated at the given level or a .vm stream,
+    // or write the classes of a bundle back to separate files
+    File bundle;
+    int compression;
+    File split;
+
+    // compile all the classes before writing any, and leave out the functions no root calls
+    boolean wholeProgram;
+    List<String> roots;
+
+    // with a whole program, write the live functions of all the classes to this one file, with the string literals pooled
+    File link;
+
+    // with a whole program, translate it and the OS .vm files next to it to this Hack assembly file
+    File asm;
+
+    // with a whole program, calls to functions of at most this many instructions are replaced by their code
+    int inlineThreshold;
+
+    // run as a compile server, or send the source to one, on a localhost port or a unix domain socket
+    boolean server;
+    boolean client;
+    int port;
+    File socket;
+
+    public CompilerOptions() {
+        this.source = null;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.peephole = false;
+        this.verbose = false;
+        this.compact = false;
+        this.optimizationLevel = 1;
+        this.internStrings = false;
+        this.internMaxLength = 64;
+        this.cache = false;
+        this.verifyCache = false;
+        this.watch = false;
+        this.stats = false;
+        this.pipeline = false;
+        this.syntaxTree = false;
+        this.bundle = null;
+        this.compression = Deflater.DEFAULT_COMPRESSION;
+        this.split = null;
+        this.wholeProgram = false;
+        this.roots = new ArrayList<String>();
+        this.link = null;
+        this.asm = null;
+        this.inlineThreshold = 0;
+        this.server = false;
+        this.client = false;
+        this.port = CompileServer.DEFAULT_PORT;
+        this.socket = null;
+    }
+
+    /**
+     * Parses the command line arguments of JackAnalyzer.
+     * 
+     * @param args the command line arguments
+     * @return the parsed options
+     */
+    public static CompilerOptions parse(String[] args){
+        CompilerOptions options = new CompilerOptions();
+        for(int i = 0; i < args.length; i++){
+            switch(args[i]){
+                case "-j":
+                case "--threads":
+                    options.threads = Math.max(1, Integer.parseInt(value(args, ++i)));
+                    break;
+                case "--peephole":
+                    options.peephole = true;
+                    break;
+                case "--compact":
+                    options.compact = true;
+                    break;
+                case "--intern-strings":
+                    options.internStrings = true;
+                    break;
+                case "--intern-max-length":
+                    options.internStrings = true;
+                    options.internMaxLength = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--cache":
+                    options.cache = true;
+                    break;
+                case "--verify-cache":
+                    options.cache = true;
+                    options.verifyCache = true;
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    break;
+                case "--stats":
+                    options.stats = true;
+                    break;
+                case "--pipeline":
+                    options.pipeline = true;
+                    break;
+                case "--ast":
+                    options.syntaxTree = true;
+                    break;
+                case "--bundle":
+                    options.bundle = new File(value(args, ++i));
+                    break;
+                case "--compression":
+                    options.compression = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--split":
+                    options.split = new File(value(args, ++i));
+                    break;
+                case "--whole-program":
+                    options.wholeProgram = true;
+                    break;
+                case "--root":
+                    options.wholeProgram = true;
+                    options.roots.add(value(args, ++i));
+                    break;
+                case "--link":
+                    options.wholeProgram = true;
+                    options.link = new File(value(args, ++i));
+                    break;
+                case "--asm":
+                    options.wholeProgram = true;
+                    options.asm = new File(value(args, ++i));
+                    break;
+                case "--inline":
+                    options.wholeProgram = true;
+                    options.inlineThreshold = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--server":
+                    options.server = true;
+                    break;
+                case "--client":
+                    options.client = true;
+                    break;
+                case "--port":
+                    options.port = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--socket":
+                    options.socket = new File(value(args, ++i));
+                    break;
+                case "-v":
+                case "--verbose":
+                    options.verbose = true;
+                    break;
+                case "-O0":
+                case "-O1":
+                case "-O2":
+                    options.optimizationLevel = args[i].charAt(2) - '0';
+                    break;
+                default:
+                    if(args[i].startsWith("-") && !args[i].equals("-")){
+                        throw new IllegalArgumentException("unknown option " + args[i]);
+                    }
+                    options.source = new File(args[i]);
+            }
+        }
+        if(options.source == null && !options.server && options.split == null){
+            throw new IllegalArgumentException("usage: JackAnalyzer <file.jack | directory> [-j threads] [-O0|-O1|-O2] [--peephole] [--compact] [--intern-strings] [--intern-max-length n] [--cache|--verify-cache] [--pipeline] [--ast] [--watch] [--stats] [-v]\n"
+                + "       JackAnalyzer <file.jack | directory> --bundle <file.vm | file.zip> [--compression 0-9] [-j threads] [-O0|-O1|-O2] [--peephole] [--compact] [--ast] [--stats] [-v]\n"
+                + "       JackAnalyzer --split <file.vm | file.zip> [directory]\n"
+                + "       JackAnalyzer <directory> --whole-program [--root Class.function]... [--inline size] [--link file.vm | --asm file.asm] [-O0|-O1|-O2] [--peephole] [--compact] [--ast] [-v]\n"
+                + "       JackAnalyzer --server [--port n | --socket path] [-j threads]\n"
+                + "       JackAnalyzer --client [--port n | --socket path] <file.jack | directory | -> [-O0|-O1|-O2] [--peephole] [--compact] [--cache|--verify-cache] [--stats]");
+        }
+        if(options.wholeProgram && (options.cache || options.watch)){
+            throw new IllegalArgumentException("--whole-program can not be combined with --cache or --watch, the output of a class depends on the others");
+        }
+        if(options.bundle != null && (options.cache || options.watch)){
+            throw new IllegalArgumentException("--bundle can not be combined with --cache or --watch, they keep one output file per class");
+        }
+        if(options.link != null && options.bundle != null){
+            throw new IllegalArgumentException("--link can not be combined with --bundle, the linked program is a single file already");
+        }
+        if(options.asm != null && (options.link != null || options.bundle != null)){
+            throw new IllegalArgumentException("--asm can not be combined with --link or --bundle, it writes no .vm files");
+        }
+        if(options.compression < -1 || options.compression > 9){
+            throw new IllegalArgumentException("--compression takes a level from 0 to 9");
+        }
+        return options;
+    }
+
+    /**
+     * Returns the argument at i, the value of the option before it.
+     */
+    private static String value(String[] args, int i){
+        if(i >= args.length){
+            throw new IllegalArgumentException("option " + args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    /**
+     * Returns the options a client sends with its requests, the ones which change how a server compiles.
+     */
+    public String requestArguments(){
+        return "-O" + optimizationLevel + (peephole ? " --peephole" : "") + (compact ? " --compact" : "") + (internStrings ? " --intern-max-length " + internMaxLength : "") + (verifyCache ? " --verify-cache" : cache ? " --cache" : "");
+    }
+
+    /**
+     * Returns a description of the options which change the generated code.
+     */
+    public String signature(){
+        return "O" + optimizationLevel + (peephole ? " peephole" : "") + (compact ? " compact" : "") + (internStrings ? " intern " + internMaxLength : "");
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+
+/**
+ * An error found while compiling a class, with the line it was found on.
+ */
+public class Diagnostic {
+
+    final int line;
+    final String message;
+
+    public Diagnostic(int line, String message) {
+        this.line = line;
+        this.message = message;
+    }
+
+    /**
+     * Returns the diagnostic of an error thrown by the tokenizer, the engine or the writer. The tokenizer's and the
+     * engine's errors name their line, other errors are reported at the line the engine stopped on.
+     */
+    static Diagnostic of(Exception e, CompilationEngine engine){
+        String message = e.getMessage();
+        if(e instanceof IOException && message != null && message.startsWith("line ")){
+            int colon = message.indexOf(": ");
+            if(colon > 5){
+                try{
+                    return new Diagnostic(Integer.parseInt(message.substring(5, colon)), message.substring(colon + 2));
+                }
+                catch(NumberFormatException ignored){
+                }
+            }
+        }
+        int line = engine.line();
+        if(e instanceof IOException){
+            return new Diagnostic(line, message);
+        }
+        return new Diagnostic(line, "unexpected '" + engine.tokenizer.token() + "'");
+    }
+
+    /**
+     * Returns the line, starting from 1, or 0 when the error has no place in the source.
+     */
+    public int line(){
+        return line;
+    }
+
+    public String message(){
+        return message;
+    }
+
+    public String toString(){
+        return (line > 0) ? "line " + line + ": " + message : message;
+    }
+}
@@ -0,0 +1,44 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a .jack file compiled by JackAnalyzer, its duration covers all the phases.
+ */
+@Name("jack.FileCompiled")
+@Label("File Compiled")
+@Category("Jack Compiler")
+class FileCompiledEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Source Size")
+    @DataAmount
+    long sourceBytes;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Instructions")
+    long instructions;
+
+    @Label("Read")
+    @Timespan
+    long readNanos;
+
+    @Label("Tokenize and Parse")
+    @Timespan
+    long compileNanos;
+
+    @Label("Optimize")
+    @Timespan
+    long optimizeNanos;
+
+    @Label("Write")
+    @Timespan
+    long writeNanos;
+}
@@ -0,0 +1,650 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Translates VM code to Hack assembly. The top of the stack is kept in the D register whenever the translator knows
+ * it is there, so most instructions neither write the stack nor read it back; at labels, jumps and calls it is
+ * written back to RAM, which is where every other instruction may find it. A push which is followed by an arithmetic
+ * or comparison instruction is combined with it, and a comparison followed by an if-goto becomes a single jump.
+ * Calls and returns jump to one shared copy of the frame handling, and a function returns its value in D.
+ */
+public class HackTranslator {
+
+    // the shared call and return code, and the label after the bootstrap call
+    static final String CALL = "$CALL";
+    static final String RETURN = "$RETURN";
+    static final String HALT = "$HALT";
+
+    // the Hack ROM has 32K instructions
+    static final int ROM_SIZE = 32768;
+
+    StringBuilder out;
+    int instructions;
+
+    // the top of the stack is in D and not in RAM
+    boolean cached;
+
+    // the function being translated, the file its statics belong to, and a counter for unique labels
+    String function, file;
+    int labels;
+
+    public HackTranslator() {
+        this.out = new StringBuilder();
+        this.instructions = 0;
+        this.cached = false;
+        this.function = "";
+        this.file = "";
+        this.labels = 0;
+    }
+
+    /**
+     * Writes the start of the program, which sets up the stack and calls the entry function, and the shared code.
+     */
+    public void writeBootstrap(String entry){
+        a("@256");
+        a("D=A");
+        a("@SP");
+        a("M=D");
+        writeCall(entry, 0);
+        label(HALT);
+        a("@" + HALT);
+        a("0;JMP");
+
+        // D: return address, R13: function, R14: number of arguments
+        label(CALL);
+        pushD();
+        for(String register : new String[]{"LCL", "ARG", "THIS", "THAT"}){
+            a("@" + register);
+            a("D=M");
+            pushD();
+        }
+        a("@R14");
+        a("D=M");
+        a("@5");
+        a("D=D+A");
+        a("@SP");
+        a("D=M-D");
+        a("@ARG");
+        a("M=D");
+        a("@SP");
+        a("D=M");
+        a("@LCL");
+        a("M=D");
+        a("@R13");
+        a("A=M");
+        a("0;JMP");
+
+        // D: return value, which stays in D; the stack of the caller ends where its arguments started
+        label(RETURN);
+        a("@R15");
+        a("M=D");
+        a("@LCL");
+        a("D=M");
+        a("@R13");
+        a("M=D");
+        a("@5");
+        a("A=D-A");
+        a("D=M");
+        a("@R14");
+        a("M=D");
+        a("@ARG");
+        a("D=M");
+        a("@SP");
+        a("M=D");
+        for(String register : new String[]{"THAT", "THIS", "ARG", "LCL"}){
+            a("@R13");
+            a("AM=M-1");
+            a("D=M");
+            a("@" + register);
+            a("M=D");
+        }
+        a("@R15");
+        a("D=M");
+        a("@R14");
+        a("A=M");
+        a("0;JMP");
+    }
+
+    /**
+     * Translates the code of the functions of one file, the file names their static variables.
+     */
+    public void translate(VMCode code, String file){
+        this.file = file;
+        for(int i = 0; i < code.size(); i++){
+            Command command = code.command(i);
+            switch(command){
+                case FUNCTION:
+                    writeFunction(code.nameOf(i), code.operand(i));
+                    break;
+                case PUSH:
+                    i = writePush(code, i);
+                    break;
+                case POP:
+                    writePop(code.segment(i), code.operand(i));
+                    break;
+                case ADD:
+                case SUB:
+                case AND:
+                case OR:
+                    // D: y, M: x
+                    load();
+                    a("@SP");
+                    a("AM=M-1");
+                    a((command == Command.SUB) ? "D=M-D" : combine(command, "M"));
+                    break;
+                case NEG:
+                    load();
+                    a("D=-D");
+                    break;
+                case NOT:
+                    if(i + 1 < code.size() && code.command(i + 1) == Command.IF_GOTO){
+                        // not x is true unless x is -1
+                        load();
+                        a("D=D+1");
+                        jump(code.nameOf(++i), "JNE");
+                    }
+                    else{
+                        load();
+                        a("D=!D");
+                    }
+                    break;
+                case EQ:
+                    load();
+                    a("@SP");
+                    a("AM=M-1");
+                    a("D=M-D");
+                    i = writeComparison(code, i);
+                    break;
+                case GT:
+                case LT:
+                    // y goes to R13 and x to D
+                    load();
+                    a("@R13");
+                    a("M=D");
+                    a("@SP");
+                    a("AM=M-1");
+                    a("D=M");
+                    writeDifference(null, 0);
+                    i = writeComparison(code, i);
+                    break;
+                case LABEL:
+                    spill();
+                    label(function + "$" + code.nameOf(i));
+                    break;
+                case GOTO:
+                    spill();
+                    a("@" + function + "$" + code.nameOf(i));
+                    a("0;JMP");
+                    break;
+                case IF_GOTO:
+                    load();
+                    jump(code.nameOf(i), "JNE");
+                    break;
+                case CALL:
+                    writeCall(code.nameOf(i), code.operand(i));
+                    break;
+                case RETURN:
+                    load();
+                    a("@" + RETURN);
+                    a("0;JMP");
+                    cached = false;
+                    break;
+            }
+        }
+    }
+
+    private void writeFunction(String name, int locals){
+        function = name;
+        cached = false;
+        label(name);
+        if(locals == 0) return;
+        a("@SP");
+        a("A=M");
+        for(int l = 0; l < locals; l++){
+            a("M=0");
+            a("A=A+1");
+        }
+        a("D=A");
+        a("@SP");
+        a("M=D");
+    }
+
+    private void writeCall(String name, int arguments){
+        spill();
+        String returnAddress = "$RET." + labels++;
+        a("@" + name);
+        a("D=A");
+        a("@R13");
+        a("M=D");
+        if(arguments <= 1){
+            a("@R14");
+            a("M=" + arguments);
+        }
+        else{
+            a("@" + arguments);
+            a("D=A");
+            a("@R14");
+            a("M=D");
+        }
+        a("@" + returnAddress);
+        a("D=A");
+        a("@" + CALL);
+        a("0;JMP");
+        label(returnAddress);
+        // the return value is in D
+        cached = true;
+    }
+
+    /**
+     * Translates the push at i, together with the instruction after it when that takes the pushed value as its
+     * operand right away. Returns the index of the last instruction translated.
+     */
+    private int writePush(VMCode code, int i){
+        Segment segment = code.segment(i);
+        int index = code.operand(i);
+        Command next = (i + 1 < code.size()) ? code.command(i + 1) : null;
+        boolean binary = next == Command.ADD || next == Command.SUB || next == Command.AND || next == Command.OR;
+        boolean comparison = next == Command.EQ || next == Command.GT || next == Command.LT;
+        if((binary || comparison) && (segment == Segment.CONSTANT || isAddressable(segment, index))){
+            // D: x, the pushed value y is read through A
+            load();
+            if(next != Command.EQ && !binary){
+                writeDifference(segment, index);
+                return writeComparison(code, i + 1);
+            }
+            String y = "M";
+            if(segment == Segment.CONSTANT){
+                a("@" + index);
+                y = "A";
+            }
+            else address(segment, index);
+            if(binary){
+                a(combine(next, y));
+                return i + 1;
+            }
+            a("D=D-" + y);
+            return writeComparison(code, i + 1);
+        }
+
+        spill();
+        if(segment == Segment.CONSTANT){
+            if(index <= 1){
+                a("D=" + index);
+            }
+            else{
+                a("@" + index);
+                a("D=A");
+            }
+        }
+        else if(isAddressable(segment, index)){
+            address(segment, index);
+            a("D=M");
+        }
+        else{
+            a("@" + base(segment));
+            a("D=M");
+            a("@" + index);
+            a("A=D+A");
+            a("D=M");
+        }
+        cached = true;
+        return i;
+    }
+
+    private void writePop(Segment segment, int index){
+        if(base(segment) == null || index <= 6){
+            load();
+            address(segment, index);
+            a("M=D");
+        }
+        else if(!cached){
+            a("@" + base(segment));
+            a("D=M");
+            a("@" + index);
+            a("D=D+A");
+            a("@R13");
+            a("M=D");
+            a("@SP");
+            a("AM=M-1");
+            a("D=M");
+            a("@R13");
+            a("A=M");
+            a("M=D");
+        }
+        else{
+            a("@R13");
+            a("M=D");
+            a("@" + base(segment));
+            a("D=M");
+            a("@" + index);
+            a("D=D+A");
+            a("@R14");
+            a("M=D");
+            a("@R13");
+            a("D=M");
+            a("@R14");
+            a("A=M");
+            a("M=D");
+        }
+        cached = false;
+    }
+
+    /**
+     * Replaces x in D with a value which has the sign of x - y, for gt and lt. x - y overflows when x and y have
+     * different signs, then the sign of x decides; y is a constant, a variable, or in R13 when the segment is null.
+     */
+    private void writeDifference(Segment segment, int index){
+        if(segment == Segment.CONSTANT){
+            // a constant is not negative, so a negative x is less and x - y can not overflow otherwise
+            String end = "$CMP." + labels++;
+            if(index > 0){
+                a("@" + end);
+                a("D;JLT");
+            }
+            a("@" + index);
+            a("D=D-A");
+            label(end);
+            return;
+        }
+        String negative = "$CMP." + labels++;
+        String same = "$CMP." + labels++;
+        String end = "$CMP." + labels++;
+        a("@R14");
+        a("M=D");
+        a("@" + negative);
+        a("D;JLT");
+        addressOf(segment, index);
+        a("D=M");
+        a("@" + same);
+        a("D;JGE");
+        a("D=1");
+        a("@" + end);
+        a("0;JMP");
+        label(negative);
+        addressOf(segment, index);
+        a("D=M");
+        a("@" + same);
+        a("D;JLT");
+        a("D=-1");
+        a("@" + end);
+        a("0;JMP");
+        label(same);
+        a("@R14");
+        a("D=M");
+        addressOf(segment, index);
+        a("D=D-M");
+        label(end);
+    }
+
+    private void addressOf(Segment segment, int index){
+        if(segment == null) a("@R13");
+        else address(segment, index);
+    }
+
+    /**
+     * Finishes the comparison at i with x - y, or a value of the same sign, in D. Followed by an if-goto, or by not and
+     * an if-goto, it becomes a jump on D, otherwise D is set to true or false. Returns the index of the last instruction translated.
+     */
+    private int writeComparison(VMCode code, int i){
+        Command command = code.command(i);
+        String condition = (command == Command.EQ) ? "JEQ" : (command == Command.GT) ? "JGT" : "JLT";
+        if(i + 1 < code.size() && code.command(i + 1) == Command.IF_GOTO){
+            cached = true;
+            jump(code.nameOf(i + 1), condition);
+            return i + 1;
+        }
+        if(i + 2 < code.size() && code.command(i + 1) == Command.NOT && code.command(i + 2) == Command.IF_GOTO){
+            String negated = (command == Command.EQ) ? "JNE" : (command == Command.GT) ? "JLE" : "JGE";
+            cached = true;
+            jump(code.nameOf(i + 2), negated);
+            return i + 2;
+        }
+        String isTrue = "$CMP." + labels++;
+        String end = "$CMP." + labels++;
+        a("@" + isTrue);
+        a("D;" + condition);
+        a("D=0");
+        a("@" + end);
+        a("0;JMP");
+        label(isTrue);
+        a("D=-1");
+        label(end);
+        cached = true;
+        return i;
+    }
+
+    /**
+     * Jumps to a label of the current function on the value in D, which is taken off the stack.
+     */
+    private void jump(String label, String condition){
+        a("@" + function + "$" + label);
+        a("D;" + condition);
+        cached = false;
+    }
+
+    /**
+     * Returns the instruction which sets D to D op y, where y is A or M.
+     */
+    private static String combine(Command command, String y){
+        switch(command){
+            case ADD:
+                return "D=D+" + y;
+            case SUB:
+                return "D=D-" + y;
+            case AND:
+                return "D=D&" + y;
+            default:
+                return "D=D|" + y;
+        }
+    }
+
+    /**
+     * Returns whether A can be set to the address of the variable without using D.
+     */
+    private static boolean isAddressable(Segment segment, int index){
+        return base(segment) == null || index <= 3;
+    }
+
+    /**
+     * Sets A to the address of a variable, with at most index instructions after the first two for a segment with a base.
+     */
+    private void address(Segment segment, int index){
+        switch(segment){
+            case STATIC:
+                a("@" + file + "." + index);
+                return;
+            case TEMP:
+                a("@" + (5 + index));
+                return;
+            case POINTER:
+                a((index == 0) ? "@THIS" : "@THAT");
+                return;
+            default:
+                a("@" + base(segment));
+                if(index == 0){
+                    a("A=M");
+                    return;
+                }
+                a("A=M+1");
+                for(int k = 1; k < index; k++){
+                    a("A=A+1");
+                }
+        }
+    }
+
+    /**
+     * Returns the register which holds the base address of a segment, or null for the segments at fixed addresses.
+     */
+    private static String base(Segment segment){
+        switch(segment){
+            case LOCAL:
+                return "LCL";
+            case ARGUMENT:
+                return "ARG";
+            case THIS:
+                return "THIS";
+            case THAT:
+                return "THAT";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Makes sure the top of the stack is in D and not in RAM.
+     */
+    private void load(){
+        if(cached) return;
+        a("@SP");
+        a("AM=M-1");
+        a("D=M");
+        cached = true;
+    }
+
+    /**
+     * Writes the top of the stack back to RAM if it is in D.
+     */
+    private void spill(){
+        if(!cached) return;
+        pushD();
+        cached = false;
+    }
+
+    private void pushD(){
+        a("@SP");
+        a("AM=M+1");
+        a("A=A-1");
+        a("M=D");
+    }
+
+    private void a(String instruction){
+        out.append(instruction).append('\n');
+        instructions++;
+    }
+
+    private void label(String name){
+        out.append('(').append(name).append(")\n");
+    }
+
+    public int size(){
+        return instructions;
+    }
+
+    public String toString(){
+        return out.toString();
+    }
+
+    /**
+     * Writes the live functions of a whole program, with the functions they call from the .vm files in the source
+     * directory which have no .jack source (the OS), to one .asm file, and returns a report.
+     * The program starts from Sys.init, or from Main.main when no Sys.init is defined.
+     */
+    public static String translate(WholeProgram program, File source, File output) throws IOException{
+        // every function with the code it is in and the file of its statics
+        Map<String, VMCode> codes = new LinkedHashMap<String, VMCode>();
+        Map<String, String> files = new LinkedHashMap<String, String>();
+        for(WholeProgram.Function f : program.functions.values()){
+            if(!f.live) continue;
+            codes.put(f.name, f.code);
+            files.put(f.name, classOf(f.name));
+        }
+        int libraries = 0;
+        File directory = source.isDirectory() ? source : source.getAbsoluteFile().getParentFile();
+        File[] children = directory.listFiles();
+        if(children != null){
+            for(File child : children){
+                String name = child.getName();
+                if(!name.endsWith(".vm") || child.equals(output) || new File(directory, name.substring(0, name.length() - 2) + "jack").exists()) continue;
+                VMCode code;
+                try{
+                    code = VMCode.parse(new String(Files.readAllBytes(child.toPath()), StandardCharsets.US_ASCII));
+                }
+                catch(IOException e){
+                    throw new IOException(child + ": " + e.getMessage());
+                }
+                libraries++;
+                splitFunctions(code, name.substring(0, name.length() - 3), codes, files);
+            }
+        }
+
+        String entry = codes.containsKey("Sys.init") ? "Sys.init" : "Main.main";
+        if(!codes.containsKey(entry)){
+            throw new IOException("the program has neither Sys.init nor Main.main");
+        }
+
+        // only the functions the entry can reach are translated
+        Set<String> reached = new HashSet<String>();
+        Set<String> undefined = new TreeSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        Set<String> seen = new TreeSet<String>();
+        pending.push(entry);
+        seen.add(entry);
+        while(!pending.isEmpty()){
+            String name = pending.pop();
+            VMCode code = codes.get(name);
+            if(code == null){
+                undefined.add(name);
+                continue;
+            }
+            reached.add(name);
+            for(int i = 0; i < code.size(); i++){
+                if(code.command(i) == Command.CALL && seen.add(code.nameOf(i))){
+                    pending.push(code.nameOf(i));
+                }
+            }
+        }
+        if(!undefined.isEmpty()){
+            throw new IOException("undefined functions " + undefined + ", add the .vm files of the OS to " + directory);
+        }
+
+        HackTranslator translator = new HackTranslator();
+        translator.writeBootstrap(entry);
+        for(String name : codes.keySet()){
+            if(reached.contains(name)){
+                translator.translate(codes.get(name), files.get(name));
+            }
+        }
+        try(OutputStream out = new FileOutputStream(output)){
+            out.write(translator.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("assembly: ").append(reached.size()).append(" functions, ").append(libraries).append(" library files, ")
+            .append(translator.size()).append(" instructions written to ").append(output).append('\n');
+        if(translator.size() > ROM_SIZE){
+            report.append("the program does not fit in the ").append(ROM_SIZE).append(" instructions of the Hack ROM\n");
+        }
+        return report.toString();
+    }
+
+    private static String classOf(String function){
+        int dot = function.indexOf('.');
+        return (dot < 0) ? function : function.substring(0, dot);
+    }
+
+    /**
+     * Adds the functions of the code of one .vm file to codes, each as a code of its own.
+     */
+    private static void splitFunctions(VMCode code, String file, Map<String, VMCode> codes, Map<String, String> files){
+        VMCode current = null;
+        for(int i = 0; i < code.size(); i++){
+            if(code.command(i) == Command.FUNCTION){
+                current = new VMCode(code.strings);
+                codes.put(code.nameOf(i), current);
+                files.put(code.nameOf(i), file);
+            }
+            if(current != null) current.add(code, i);
+        }
+    }
+}
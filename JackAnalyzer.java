@@ -1,33 +1,309 @@
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 public class JackAnalyzer {
+
+    // counters of all the files compiled with --peephole
+    static final PeepholeOptimizer peepholeTotals = new PeepholeOptimizer();
+
+    // counters of all the files compiled with --compact, a whole program reports its own
+    static final CodeCompactor compactTotals = new CodeCompactor();
+
+    // with --pipeline, files from this size are tokenized, parsed and written on three threads when there are
+    // processors for them. Smaller files are done before the threads would pay for the hand offs
+    static final int PIPELINE_MIN_BYTES = 64 * 1024;
+
+    // phase times of the files compiled with --stats
+    static final CompileStats stats = new CompileStats();
+
     public static void main(String[] args) {
         try{
-            TypesMap.init();
-            File source = new File(args[0]);
-            File[] filesArray;
-            if(source.isDirectory()){
-                filesArray = source.listFiles();
-            }
-            else {
-                filesArray = new File[1];
-                filesArray[0] = source;
-            }
-
-            for(File f : filesArray){
-                if(!f.getName().endsWith(".jack")) continue;
-                String fileName = f.getAbsolutePath();
-                File output = new File(fileName.substring(0,fileName.length()-4)+"xml");
-                CompilationEngine cEng = new CompilationEngine(f,output);
+            CompilerOptions options = CompilerOptions.parse(args);
+            if(options.server){
+                new CompileServer(options).run();
+                return;
+            }
+            if(options.client){
+                System.exit(CompileServer.runClient(options));
+            }
+            if(options.split != null){
+                File directory = (options.source != null) ? options.source : options.split.getAbsoluteFile().getParentFile();
+                int classes = OutputBundle.split(options.split, directory);
+                System.out.println(classes + " classes written to " + directory);
+                return;
+            }
+            if(options.source.getPath().equals("-")){
+                throw new IllegalArgumentException("the source is only read from standard input with --client");
+            }
+
+            List<File> files = new ArrayList<File>();
+            collectSources(options.source, files);
+
+            // compile the largest files first so a big class does not end up as the long tail
+            Map<File, Long> sizes = new HashMap<File, Long>();
+            for(File f : files){
+                sizes.put(f, f.length());
+            }
+            files.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+
+            CompileCache cache = null;
+            if(options.cache){
+                File root = options.source.isDirectory() ? options.source : options.source.getAbsoluteFile().getParentFile();
+                cache = new CompileCache(root, options, options.verifyCache);
+            }
+
+            OutputBundle bundle = null;
+            if(options.bundle != null){
+                File root = options.source.isDirectory() ? options.source : options.source.getAbsoluteFile().getParentFile();
+                bundle = new OutputBundle(options.bundle, root, options.compression);
+            }
+
+            Queue<String> failures = new ConcurrentLinkedQueue<String>();
+            long start = System.nanoTime();
+            try{
+                if(options.wholeProgram){
+                    compileProgram(files, options, bundle, failures);
+                }
+                else compileAll(files, options, cache, bundle, failures);
+            }
+            finally{
+                if(bundle != null){
+                    bundle.close();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if(cache != null){
+                cache.save();
+                if(options.verbose || options.verifyCache){
+                    System.out.println(cache.report());
+                }
+            }
+
+            if(options.verbose && options.peephole){
+                System.out.print(peepholeTotals.report());
+            }
+
+            if(options.compact && !options.wholeProgram){
+                System.out.print(compactTotals.report());
+            }
+
+            if(options.stats){
+                System.out.print(stats.report(elapsed));
+            }
+
+            if(!failures.isEmpty()){
+                for(String failure : failures){
+                    System.err.println(failure);
+                }
+                System.err.println(failures.size() + " of " + files.size() + " files failed to compile");
+            }
+
+            if(options.watch){
+                new SourceWatcher(options, cache).run();
+            }
+            else if(!failures.isEmpty()){
+                System.exit(1);
+            }
+        }
+        catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds all the .jack files under the given source to the list, descending into subdirectories.
+     * 
+     * @param source a .jack file or a directory
+     * @param files the list to add the found files to
+     */
+    static void collectSources(File source, List<File> files){
+        if(source.isDirectory()){
+            File[] children = source.listFiles();
+            if(children == null) return;
+            for(File child : children){
+                collectSources(child, files);
+            }
+        }
+        else if(source.getName().endsWith(".jack")){
+            files.add(source);
+        }
+    }
+
+    /**
+     * Compiles the given files on a work stealing pool of the given size, into the bundle if it is not null.
+     * A file that fails to compile does not stop the others, its error is added to failures instead.
+     */
+    static void compileAll(List<File> files, CompilerOptions options, CompileCache cache, OutputBundle bundle, Queue<String> failures){
+        forEachFile(files, options.threads, f -> compileFile(f, options, cache, bundle, failures));
+    }
+
+    /**
+     * Runs the task for every file on a work stealing pool of the given size, or on this thread for a single thread or file.
+     */
+    static void forEachFile(List<File> files, int threads, Consumer<File> task){
+        if(threads == 1 || files.size() < 2){
+            for(File f : files){
+                task.accept(f);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, files.size()));
+        try{
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            for(File f : files){
+                tasks.add(pool.submit(() -> task.accept(f)));
+            }
+            for(ForkJoinTask<?> submitted : tasks){
+                submitted.join();
+            }
+        }
+        finally{
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compiles all the files in memory and writes them only when every one compiled, after the whole program optimizations.
+     */
+    static void compileProgram(List<File> files, CompilerOptions options, OutputBundle bundle, Queue<String> failures) throws IOException{
+        WholeProgram program = new WholeProgram(options);
+        program.compile(files, failures);
+        if(!failures.isEmpty()){
+            System.err.println("no output written, the whole program is needed");
+            return;
+        }
+        if(options.inlineThreshold > 0){
+            System.out.print(program.inlineSmallFunctions());
+        }
+        System.out.print(program.eliminateDeadFunctions());
+        if(options.compact){
+            System.out.print(program.compact());
+        }
+        if(options.asm != null){
+            System.out.print(HackTranslator.translate(program, options.source, options.asm));
+        }
+        else if(options.link != null){
+            // the classes' own outputs would define the linked functions a second time
+            program.deleteOutputs();
+            System.out.print(new Linker(program).link(options.link));
+        }
+        else program.write(bundle);
+    }
+
+    /**
+     * Compiles a .jack file to the .vm file next to it, unless the cache has an up to date output for it.
+     */
+    static void compileFile(File f, CompilerOptions options, CompileCache cache, Queue<String> failures){
+        compileFile(f, options, cache, null, failures);
+    }
+
+    /**
+     * Compiles a .jack file into the bundle, or to the .vm file next to it if the bundle is null.
+     */
+    static void compileFile(File f, CompilerOptions options, CompileCache cache, OutputBundle bundle, Queue<String> failures){
+        String fileName = f.getAbsolutePath();
+        File output = new File(fileName.substring(0,fileName.length()-4)+"vm");
+        try{
+            long start = System.nanoTime();
+            byte[] source = Files.readAllBytes(f.toPath());
+            long read = System.nanoTime();
+            String key = null;
+            if(cache != null){
+                key = cache.keyOf(source);
+                if(cache.isUpToDate(f, key, output, source.length)) return;
+            }
+
+            FileCompiledEvent event = new FileCompiledEvent();
+            event.begin();
+            long parseStart = System.nanoTime();
+            InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8);
+            JackTokenizer tokenizer;
+            VMWriter writer;
+            if(options.pipeline && source.length >= PIPELINE_MIN_BYTES && Runtime.getRuntime().availableProcessors() >= 3){
+                tokenizer = new PipelinedTokenizer(reader, source.length);
+                writer = (bundle == null) ? new PipelinedVMWriter(output, options) : new VMWriter(null, options);
+            }
+            else{
+                tokenizer = new JackTokenizer(reader, source.length);
+                writer = new VMWriter((bundle == null) ? output : null, options);
+            }
+            CompilationEngine cEng = CompilationEngine.create(tokenizer, writer, options);
+            long compileNanos;
+            int instructions;
+            try{
                 cEng.compileClass();
+            }
+            finally{
+                compileNanos = System.nanoTime() - parseStart;
+                instructions = cEng.vmWriter.position();
                 cEng.close();
             }
+            if(bundle != null){
+                long written = System.nanoTime();
+                bundle.add(bundle.nameOf(f), writer.getCode());
+                writer.writeNanos = System.nanoTime() - written;
+            }
+
+            if(event.shouldCommit()){
+                event.path = f.getPath();
+                event.sourceBytes = source.length;
+                event.tokens = tokenizer.tokenCount;
+                event.instructions = instructions;
+                event.readNanos = read - start;
+                event.compileNanos = compileNanos;
+                event.optimizeNanos = cEng.vmWriter.optimizeNanos;
+                event.writeNanos = cEng.vmWriter.writeNanos;
+                event.commit();
+            }
+            if(options.stats){
+                CompileStats.FileStats file = new CompileStats.FileStats();
+                file.path = f.getPath();
+                file.sourceBytes = source.length;
+                file.tokens = tokenizer.tokenCount;
+                file.instructions = instructions;
+                file.readNanos = read - start;
+                file.compileNanos = compileNanos;
+                file.optimizeNanos = cEng.vmWriter.optimizeNanos;
+                file.writeNanos = cEng.vmWriter.writeNanos;
+                stats.add(file);
+            }
+            if(cEng.vmWriter.optimizer != null){
+                peepholeTotals.merge(cEng.vmWriter.optimizer);
+            }
+            if(cEng.vmWriter.compactor != null){
+                compactTotals.merge(cEng.vmWriter.compactor);
+            }
+            if(options.verbose && cEng.multiplyCallsEliminated + cEng.divideCallsEliminated > 0){
+                System.out.println(cEng.className + ": eliminated " + cEng.multiplyCallsEliminated + " Math.multiply and " 
+                    + cEng.divideCallsEliminated + " Math.divide calls");
+            }
+            if(cache != null){
+                cache.update(f, key, output);
+            }
         }
         catch(Exception e){
-            e.printStackTrace();
+            if(cache != null){
+                cache.remove(f);
+            }
+            failures.add(f.getPath() + ": " + e);
         }
     }
 
@@ -60,7 +336,7 @@ public class JackAnalyzer {
                     type = "stringConstant";
                     break;
             }
-            String content = tokenizer.currentToken;
+            CharSequence content = tokenizer.token();
             if(TypesMap.containsXmlOp(tokenizer.symbol())){
                 content = TypesMap.getXmlOp(tokenizer.symbol());
             }
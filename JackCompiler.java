@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+
+/**
+ * Compiles Jack classes held in memory, for tools which embed the compiler. Nothing is read from or written to files,
+ * and errors are returned as diagnostics instead of thrown. A JackCompiler keeps no state besides its options,
+ * so one can be shared between threads.
+ *
+ * <pre>
+ *     CompileResult result = new JackCompiler().compile("class Main { function void main() { return; } }");
+ *     if(result.succeeded()) result.writeTo(System.out);
+ * </pre>
+ */
+public class JackCompiler {
+
+    final CompilerOptions options;
+
+    public JackCompiler() {
+        this(new CompilerOptions());
+    }
+
+    /**
+     * Creates a compiler which applies the optimization level, the peephole optimizer, the compactor and the --ast choice
+     * of the options.
+     */
+    public JackCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
+    public CompileResult compile(CharSequence source){
+        char[] chars = new char[source.length()];
+        if(source instanceof String){
+            ((String)source).getChars(0, chars.length, chars, 0);
+        }
+        else{
+            for(int i = 0; i < chars.length; i++){
+                chars[i] = source.charAt(i);
+            }
+        }
+        return compile(chars, chars.length);
+    }
+
+    /**
+     * Compiles the first length chars of source. The chars are not copied, so they must not change during the call.
+     */
+    public CompileResult compile(char[] source, int length){
+        return compile(new JackTokenizer(source, length));
+    }
+
+    /**
+     * Compiles everything the reader returns, and closes it.
+     */
+    public CompileResult compile(Reader source){
+        JackTokenizer tokenizer;
+        try{
+            tokenizer = new JackTokenizer(source, 1024);
+        }
+        catch(IOException e){
+            return new CompileResult("", null, Collections.singletonList(new Diagnostic(0, "could not read the source: " + e.getMessage())));
+        }
+        return compile(tokenizer);
+    }
+
+    private CompileResult compile(JackTokenizer tokenizer){
+        VMWriter writer = new VMWriter();
+        if(options.peephole){
+            writer.optimizer = new PeepholeOptimizer();
+        }
+        if(options.compact){
+            writer.compactor = new CodeCompactor();
+        }
+        CompilationEngine engine = CompilationEngine.create(tokenizer, writer, options);
+        Diagnostic failure = null;
+        try{
+            engine.compileClass();
+        }
+        catch(IOException | RuntimeException e){
+            failure = Diagnostic.of(e, engine);
+        }
+        // closed after a failure too, the first error is the one reported
+        try{
+            engine.close();
+        }
+        catch(IOException | RuntimeException e){
+            if(failure == null) failure = Diagnostic.of(e, engine);
+        }
+        if(failure != null){
+            return new CompileResult(engine.className, null, Collections.singletonList(failure));
+        }
+        return new CompileResult(engine.className, writer.getCode(), Collections.<Diagnostic>emptyList());
+    }
+}
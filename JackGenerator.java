@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates random but valid Jack classes for benchmarks. The same seed and settings always give the same classes.
+ */
+public class JackGenerator {
+
+    Random random;
+
+    // subroutines per class, statements per block, depth of nested statements and expressions,
+    // local variables per subroutine and the chance of a comment before a statement
+    int subroutines;
+    int statements;
+    int depth;
+    int identifiers;
+    double commentDensity;
+
+    StringBuilder out;
+    int indent;
+
+    // the class being generated, its functions are called through its name
+    String className;
+
+    public JackGenerator(long seed) {
+        this.random = new Random(seed);
+        this.subroutines = 10;
+        this.statements = 6;
+        this.depth = 3;
+        this.identifiers = 8;
+        this.commentDensity = 0.2;
+    }
+
+    /**
+     * Writes classes Gen0 .. Gen(count-1) as .jack files into the directory.
+     *
+     * usage: JackGenerator <directory> [classes] [subroutines] [statements] [depth] [identifiers] [commentDensity] [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args[0]);
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        JackGenerator generator = new JackGenerator((args.length > 7) ? Long.parseLong(args[7]) : 1);
+        if(args.length > 2) generator.subroutines = Integer.parseInt(args[2]);
+        if(args.length > 3) generator.statements = Integer.parseInt(args[3]);
+        if(args.length > 4) generator.depth = Integer.parseInt(args[4]);
+        if(args.length > 5) generator.identifiers = Integer.parseInt(args[5]);
+        if(args.length > 6) generator.commentDensity = Double.parseDouble(args[6]);
+
+        directory.mkdirs();
+        for(int i = 0; i < count; i++){
+            try(Writer writer = new FileWriter(new File(directory, "Gen" + i + ".jack"))){
+                writer.write(generator.generateClass("Gen" + i));
+            }
+        }
+    }
+
+    public String generateClass(String name){
+        out = new StringBuilder();
+        indent = 0;
+        className = name;
+
+        line("/** Generated class " + name + " */");
+        line("class " + name + " {");
+        indent++;
+        line("field int size, total;");
+        line("field Array items;");
+        line("static int instances;");
+        line("");
+
+        line("constructor " + name + " new(int count) {");
+        indent++;
+        line("let size = count;");
+        line("let total = 0;");
+        line("let items = Array.new(count + 1);");
+        line("let instances = instances + 1;");
+        line("return this;");
+        indent--;
+        line("}");
+
+        for(int i = 0; i < subroutines; i++){
+            line("");
+            if(random.nextDouble() < commentDensity){
+                line("/** Subroutine number " + i + ", it computes nothing useful. */");
+            }
+            if(i % 3 == 2){
+                line("function int helper" + i + "(int first, int second) {");
+            }
+            else{
+                line("method int work" + i + "(int first, int second) {");
+            }
+            indent++;
+
+            StringBuilder vars = new StringBuilder("var int ");
+            for(int v = 0; v < identifiers; v++){
+                if(v > 0) vars.append(", ");
+                vars.append(variable(v));
+            }
+            line(vars.append(";").toString());
+            line("var Array table;");
+            line("let table = Array.new(" + (identifiers + 1) + ");");
+
+            boolean isMethod = (i % 3 != 2);
+            block(depth, isMethod, i);
+            line("return " + expression(depth, isMethod, i) + ";");
+            indent--;
+            line("}");
+        }
+
+        indent--;
+        line("}");
+        return out.toString();
+    }
+
+    private void block(int depth, boolean isMethod, int subroutine){
+        for(int s = 0; s < statements; s++){
+            if(random.nextDouble() < commentDensity){
+                line("// statement " + s + " of block at depth " + depth);
+            }
+            int kind = random.nextInt(depth > 0 ? 7 : 4);
+            switch(kind){
+                case 0:
+                case 1:
+                    line("let " + variable(random.nextInt(identifiers)) + " = " + expression(depth, isMethod, subroutine) + ";");
+                    break;
+                case 2:
+                    line("let table[" + random.nextInt(identifiers) + "] = " + expression(depth, isMethod, subroutine) + ";");
+                    break;
+                case 3:
+                    if(isMethod) line("let total = total + " + expression(depth, isMethod, subroutine) + ";");
+                    else line("do Output.printInt(" + expression(depth, isMethod, subroutine) + ");");
+                    break;
+                case 4:
+                case 5:
+                    line("if (" + expression(depth - 1, isMethod, subroutine) + " < " + random.nextInt(100) + ") {");
+                    nested(depth, isMethod, subroutine);
+                    if(kind == 5){
+                        line("} else {");
+                        nested(depth, isMethod, subroutine);
+                    }
+                    line("}");
+                    break;
+                default:
+                    line("while (" + variable(random.nextInt(identifiers)) + " > " + random.nextInt(100) + ") {");
+                    nested(depth, isMethod, subroutine);
+                    line("}");
+            }
+        }
+    }
+
+    private void nested(int depth, boolean isMethod, int subroutine){
+        indent++;
+        int saved = statements;
+        statements = Math.max(1, statements / 2);
+        block(depth - 1, isMethod, subroutine);
+        statements = saved;
+        indent--;
+    }
+
+    private String expression(int depth, boolean isMethod, int subroutine){
+        String expression = term(depth, isMethod, subroutine);
+        int operations = random.nextInt(3);
+        for(int i = 0; i < operations; i++){
+            expression += " " + "+-*/&|".charAt(random.nextInt(6)) + " " + term(depth, isMethod, subroutine);
+        }
+        return expression;
+    }
+
+    private String term(int depth, boolean isMethod, int subroutine){
+        int kind = random.nextInt(depth > 0 ? 8 : 4);
+        switch(kind){
+            case 0:
+                return Integer.toString(random.nextInt(1000));
+            case 1:
+            case 2:
+                return variable(random.nextInt(identifiers));
+            case 3:
+                return random.nextBoolean() ? "first" : "second";
+            case 4:
+                return "(" + expression(depth - 1, isMethod, subroutine) + ")";
+            case 5:
+                return (random.nextBoolean() ? "-" : "~") + term(depth - 1, isMethod, subroutine);
+            case 6:
+                return "table[" + expression(depth - 1, isMethod, subroutine) + "]";
+            default:
+                // call a subroutine declared before this one so the call graph has no cycles
+                if(subroutine == 0) return "Math.abs(" + expression(depth - 1, isMethod, subroutine) + ")";
+                int callee = random.nextInt(subroutine);
+                String arguments = "(" + expression(depth - 1, isMethod, subroutine) + ", " + random.nextInt(10) + ")";
+                if(callee % 3 == 2) return className + ".helper" + callee + arguments;
+                return isMethod ? "work" + callee + arguments : "Math.max" + arguments;
+        }
+    }
+
+    private String variable(int index){
+        // vary the length of the names a little
+        return "local" + (index % 2 == 0 ? "Value" : "") + index;
+    }
+
+    private void line(String text){
+        for(int i = 0; i < indent && !text.isEmpty(); i++){
+            out.append("    ");
+        }
+        out.append(text).append('\n');
+    }
+}
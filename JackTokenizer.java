@@ -1,120 +1,259 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 class JackTokenizer{
 
-    File f;
-    BufferedReader reader;
-    public String currentToken;
-    String currentLine;
+    char[] buffer;
+    int end;
+    int pos;
+
+    // the current token is buffer[tokenStart..tokenEnd), tokenId is its id in names for keywords and identifiers
+    int tokenStart, tokenEnd, tokenId;
     Type currentType;
-    boolean multilineComment;
+    Keyword currentKeyword;
+    NamePool names;
+    TokenText text;
+
+    // number of tokens read so far
+    int tokenCount;
 
     public JackTokenizer(File source) throws IOException{
-        this.f = source;
-        this.reader = new BufferedReader(new FileReader(source));
-        this.currentToken = "";
-        this.currentLine = "";
-        this.multilineComment = false;
+        this(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8), (int)source.length());
     }
 
-    public boolean hasMoreTokens() throws IOException{
-        return (reader.ready() || !currentLine.equals(""));
-    }
-    
-    void getNextLine() throws IOException{
-        currentLine = reader.readLine();
-        if(currentLine.indexOf("*/") != -1){
-            currentLine = currentLine.substring(currentLine.indexOf("*/") + 2);
-            multilineComment = false;
-        }
-        else if(multilineComment){
-            currentLine = "";
-        }
-        else if(currentLine.indexOf("//") != -1){
-            currentLine = currentLine.substring(0, currentLine.indexOf("//"));
+    public JackTokenizer(Reader source, int sizeHint) throws IOException{
+        try{
+            char[] chars = new char[Math.max(sizeHint, 16)];
+            int length = 0, read;
+            while((read = source.read(chars, length, chars.length - length)) != -1){
+                length += read;
+                if(length == chars.length){
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+            }
+            init(chars, length);
         }
-        else if(currentLine.indexOf("/**") != -1){
-            currentLine = currentLine.substring(0, currentLine.indexOf("/**"));
-            multilineComment = true;
+        finally{
+            source.close();
         }
-        currentLine = currentLine.trim();
     }
 
-    public void advance() throws IOException {
-        while(currentLine.length() == 0){
-            getNextLine();
+    /**
+     * Creates a tokenizer over the first length chars of the given buffer. The buffer is not copied.
+     */
+    public JackTokenizer(char[] buffer, int length){
+        init(buffer, length);
+    }
+
+    /**
+     * Creates a tokenizer at the current token of another one which shares its buffer and name pool,
+     * so it can read ahead without moving the other.
+     */
+    private JackTokenizer(JackTokenizer other){
+        this.buffer = other.buffer;
+        this.end = other.end;
+        this.pos = other.pos;
+        this.tokenStart = other.tokenStart;
+        this.tokenEnd = other.tokenEnd;
+        this.tokenId = other.tokenId;
+        this.currentType = other.currentType;
+        this.currentKeyword = other.currentKeyword;
+        this.names = other.names;
+        this.text = new TokenText();
+    }
+
+    /**
+     * Creates a tokenizer without a name pool over the given buffer, which only finds token boundaries and types.
+     * Its identifiers have no id.
+     */
+    static JackTokenizer scanner(char[] buffer, int length){
+        JackTokenizer scanner = new JackTokenizer(buffer, length);
+        scanner.names = null;
+        return scanner;
+    }
+
+    public JackTokenizer fork(){
+        return new JackTokenizer(this);
+    }
+
+    private void init(char[] buffer, int length){
+        this.buffer = buffer;
+        this.end = length;
+        this.pos = 0;
+        this.tokenId = -1;
+        this.names = new NamePool();
+        this.text = new TokenText();
+    }
+
+    /**
+     * A view of the chars of the current token, it changes whenever the tokenizer advances.
+     */
+    class TokenText implements CharSequence{
+        public int length(){
+            return tokenEnd - tokenStart;
         }
 
-        int counter = 1;
-        StringBuilder token = new StringBuilder();
-        char c = currentLine.charAt(0);
-        char terminate = ' ';
-
-        if(TypesMap.contains(c+"")){
-            currentToken = c + "";
-            currentType = Type.SYMBOL;
-            currentLine = currentLine.substring(counter);
-            currentLine = currentLine.trim();
-            return;
+        public char charAt(int index){
+            return buffer[tokenStart + index];
         }
-        else if(c == '"'){
-            terminate = '"';
-            c= currentLine.charAt(counter++);
+
+        public CharSequence subSequence(int start, int end){
+            return new String(buffer, tokenStart + start, end - start);
         }
-    
-        while(c != terminate && counter < currentLine.length() && ! TypesMap.contains(c + "")) {
-            token.append(c);
-            c = currentLine.charAt(counter++);
+
+        public String toString(){
+            return new String(buffer, tokenStart, tokenEnd - tokenStart);
         }
+    }
+
+    public boolean hasMoreTokens() throws IOException{
+        skipWhitespaceAndComments();
+        return pos < end;
+    }
 
-        currentToken = token.toString();
-        
-        if(terminate == '"'){
-            currentType = Type.STRING_CONST;
-            currentLine = currentLine.substring(counter).trim();
+    /**
+     * Moves the cursor past white space, line comments and block comments.
+     */
+    void skipWhitespaceAndComments() throws IOException{
+        while(pos < end){
+            char c = buffer[pos];
+            if(c <= ' '){
+                pos++;
+            }
+            else if(c == '/' && pos + 1 < end && buffer[pos + 1] == '/'){
+                pos += 2;
+                while(pos < end && buffer[pos] != '\n') pos++;
+            }
+            else if(c == '/' && pos + 1 < end && buffer[pos + 1] == '*'){
+                int start = pos;
+                pos += 2;
+                while(pos + 1 < end && (buffer[pos] != '*' || buffer[pos + 1] != '/')) pos++;
+                if(pos + 1 >= end){
+                    throw error(start, "unterminated comment");
+                }
+                pos += 2;
+            }
+            else return;
         }
-        else{
-            char first = token.charAt(0);
-            if(first >= 48 && first <= 57){
-                currentType = Type.INT_CONST;
+    }
+
+    public void advance() throws IOException {
+        skipWhitespaceAndComments();
+        if(pos >= end){
+            throw error(pos, "unexpected end of file");
+        }
+
+        tokenCount++;
+        char c = buffer[pos];
+        if(c == '"'){
+            int start = ++pos;
+            while(pos < end && buffer[pos] != '"' && buffer[pos] != '\n') pos++;
+            if(pos >= end || buffer[pos] != '"'){
+                throw error(start - 1, "unterminated string constant");
             }
-            else if(TypesMap.contains(currentToken)){
+            setToken(start, pos++, Type.STRING_CONST);
+        }
+        else if(isDigit(c)){
+            int start = pos;
+            while(pos < end && isDigit(buffer[pos])) pos++;
+            setToken(start, pos, Type.INT_CONST);
+        }
+        else if(isIdentifierStart(c)){
+            int start = pos;
+            while(pos < end && (isIdentifierStart(buffer[pos]) || isDigit(buffer[pos]))) pos++;
+            setToken(start, pos, Type.IDENTIFIER);
+            currentKeyword = Keyword.lookup(buffer, start, pos - start);
+            if(currentKeyword != null){
                 currentType = Type.KEYWORD;
+                tokenId = currentKeyword.ordinal();
+            }
+            else if(names != null){
+                tokenId = names.intern(buffer, start, pos - start);
             }
-            else currentType = Type.IDENTIFIER;
-            
-            currentLine = currentLine.substring(counter-1).trim();
         }
+        else if(TypesMap.isSymbol(c)){
+            setToken(pos, ++pos, Type.SYMBOL);
+        }
+        else{
+            throw error(pos, "unexpected character '" + c + "'");
+        }
+    }
+
+    private void setToken(int start, int end, Type type){
+        tokenStart = start;
+        tokenEnd = end;
+        tokenId = -1;
+        currentType = type;
+        currentKeyword = null;
+    }
+
+    private static boolean isDigit(char c){
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c){
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /**
+     * Returns the line number of the given offset in the buffer, starting from 1.
+     */
+    public int lineOf(int offset){
+        int line = 1;
+        for(int i = 0; i < offset && i < end; i++){
+            if(buffer[i] == '\n') line++;
+        }
+        return line;
+    }
+
+    private IOException error(int offset, String message){
+        return new IOException("line " + lineOf(offset) + ": " + message);
     }
 
     public Type tokenType(){
         return currentType;
     }
 
-    public String keyword(){
-        return currentToken;
+    public Keyword keyword(){
+        return currentKeyword;
     }
-    
+
     public char symbol(){
-        return currentToken.charAt(0);
+        return buffer[tokenStart];
     }
 
     public String identifier(){
-        return currentToken;
+        return names.name(tokenId);
+    }
+
+    /**
+     * Returns the id of the current keyword or identifier in the name pool, or -1 for other tokens.
+     */
+    public int identifierId(){
+        return tokenId;
     }
 
     public int intVal(){
-        return Integer.parseInt(currentToken);
+        int value = 0;
+        for(int i = tokenStart; i < tokenEnd; i++){
+            value = value * 10 + (buffer[i] - '0');
+        }
+        return value;
     }
 
     public String stringVal(){
-        return currentToken;
+        return text.toString();
+    }
+
+    public CharSequence token(){
+        return text;
     }
 
     public void close() throws IOException{
-        reader.close();
     }
-}
\ No newline at end of file
+}
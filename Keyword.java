@@ -0,0 +1,82 @@
+public enum Keyword {
+    CLASS("class"),
+    CONSTRUCTOR("constructor"),
+    FUNCTION("function"),
+    METHOD("method"),
+    FIELD("field"),
+    STATIC("static"),
+    VAR("var"),
+    INT("int"),
+    CHAR("char"),
+    BOOLEAN("boolean"),
+    VOID("void"),
+    TRUE("true"),
+    FALSE("false"),
+    NULL("null"),
+    THIS("this"),
+    LET("let"),
+    DO("do"),
+    IF("if"),
+    ELSE("else"),
+    WHILE("while"),
+    RETURN("return");
+
+    public final String text;
+    static final Keyword[] values = values();
+
+    Keyword(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Returns the keyword stored in chars[start..start+length), or null if it is not a keyword.
+     * The candidate is picked by the length and the first letters, so at most one keyword is compared.
+     */
+    public static Keyword lookup(char[] chars, int start, int length){
+        Keyword candidate = null;
+        char first = chars[start];
+        switch(length){
+            case 2:
+                candidate = (first == 'i') ? IF : DO;
+                break;
+            case 3:
+                if(first == 'i') candidate = INT;
+                else if(first == 'v') candidate = VAR;
+                else if(first == 'l') candidate = LET;
+                break;
+            case 4:
+                if(first == 'c') candidate = CHAR;
+                else if(first == 'v') candidate = VOID;
+                else if(first == 'n') candidate = NULL;
+                else if(first == 'e') candidate = ELSE;
+                else if(first == 't') candidate = (chars[start + 1] == 'r') ? TRUE : THIS;
+                break;
+            case 5:
+                if(first == 'c') candidate = CLASS;
+                else if(first == 'w') candidate = WHILE;
+                else if(first == 'f') candidate = (chars[start + 1] == 'i') ? FIELD : FALSE;
+                break;
+            case 6:
+                if(first == 'm') candidate = METHOD;
+                else if(first == 's') candidate = STATIC;
+                else if(first == 'r') candidate = RETURN;
+                break;
+            case 7:
+                candidate = BOOLEAN;
+                break;
+            case 8:
+                candidate = FUNCTION;
+                break;
+            case 11:
+                candidate = CONSTRUCTOR;
+                break;
+        }
+        if(candidate == null) return null;
+
+        String text = candidate.text;
+        for(int i = 0; i < length; i++){
+            if(text.charAt(i) != chars[start + i]) return null;
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,15 @@
+public enum Kind {
+    STATIC(Segment.STATIC),
+    FIELD(Segment.THIS),
+    ARG(Segment.ARGUMENT),
+    VAR(Segment.LOCAL),
+    NONE(null);
+
+    // the segment which holds the variables of this kind
+    public final Segment segment;
+    static final Kind[] values = values();
+
+    Kind(Segment segment) {
+        this.segment = segment;
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Links the live functions of a whole program into a single .vm file. The static variables of every class are moved
+ * to a range of their own in the one static segment of the file, and every distinct string literal is built only once:
+ * a generated pool function, which the entry points call first, stores the literals in static variables and the code
+ * which built a literal with String.new and String.appendChar pushes its static instead.
+ * A pooled literal is one String object shared by all its uses, so a program which changes the String of a literal
+ * sees the change at every use of the same text.
+ */
+public class Linker {
+
+    // the Hack platform keeps the static variables of all the files in RAM 16 to 255
+    static final int STATIC_LIMIT = 240;
+
+    WholeProgram program;
+    String poolClass;
+
+    // static variables of the classes, and the first one of every class in the linked file
+    int statics;
+    int[] bases;
+
+    // the pool slot of every pooled literal, and the slot which tells whether the pool was built
+    Map<String, Integer> slots;
+    int builtSlot;
+
+    public Linker(WholeProgram program) {
+        this.program = program;
+        this.slots = new LinkedHashMap<String, Integer>();
+    }
+
+    /**
+     * Writes the linked program to output and returns a report of the pooled literals.
+     */
+    public String link(File output) throws IOException{
+        StringBuilder report = new StringBuilder();
+        List<WholeProgram.Function> live = new ArrayList<WholeProgram.Function>();
+        for(WholeProgram.Function f : program.functions.values()){
+            if(f.live) live.add(f);
+        }
+        relocateStatics(live);
+
+        Map<String, Integer> uses = countLiterals(live);
+        List<WholeProgram.Function> entries = entries();
+        if(uses.isEmpty()){
+            report.append("string pool: no string literals\n");
+        }
+        else if(program.functions.containsKey("Sys.init")){
+            report.append("string pool: not used, the program defines Sys.init which runs before the pool could be built\n");
+        }
+        else if(entries.isEmpty()){
+            report.append("string pool: not used, no entry point to build it from\n");
+        }
+        else pool(uses, report);
+
+        VMCode image = new VMCode();
+        int removed = 0;
+        for(WholeProgram.Function f : live){
+            removed += copy(f, entries.contains(f) && !slots.isEmpty(), image);
+        }
+        if(!slots.isEmpty()){
+            writePool(image);
+        }
+
+        StringBuilder text = new StringBuilder(image.size() * 12);
+        image.writeTo(text, 0, image.size());
+        try(OutputStream out = new FileOutputStream(output)){
+            out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        report.append("linked ").append(live.size()).append(" functions of ").append(program.classes.length)
+            .append(" classes into ").append(output).append(", ").append(statics).append(" static variables, ")
+            .append(image.size()).append(" instructions");
+        if(!slots.isEmpty()){
+            report.append(", ").append(removed).append(" instructions of string building replaced");
+        }
+        return report.append('\n').toString();
+    }
+
+    /**
+     * Gives every class a range of the static segment, as large as the highest static variable its live code uses.
+     */
+    private void relocateStatics(List<WholeProgram.Function> live){
+        int[] counts = new int[program.classes.length];
+        for(WholeProgram.Function f : live){
+            VMCode code = f.code;
+            for(int i = 0; i < code.size(); i++){
+                if(isStatic(code, i)){
+                    counts[f.owner] = Math.max(counts[f.owner], code.operand(i) + 1);
+                }
+            }
+        }
+        bases = new int[counts.length];
+        statics = 0;
+        for(int c = 0; c < counts.length; c++){
+            bases[c] = statics;
+            statics += counts[c];
+        }
+    }
+
+    private static boolean isStatic(VMCode code, int i){
+        return (code.command(i) == Command.PUSH || code.command(i) == Command.POP) && code.segment(i) == Segment.STATIC;
+    }
+
+    /**
+     * Returns the number of uses of every string literal in the code, in the order they are first found.
+     */
+    private static Map<String, Integer> countLiterals(List<WholeProgram.Function> live){
+        Map<String, Integer> uses = new LinkedHashMap<String, Integer>();
+        for(WholeProgram.Function f : live){
+            VMCode code = f.code;
+            for(int i = 0; i < code.size(); i++){
+                String literal = literalAt(code, i);
+                if(literal != null){
+                    uses.merge(literal, 1, Integer::sum);
+                    i += literalLength(literal) - 1;
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * Returns the text of the string literal built by the code from i on, or null if there is none:
+     * push constant n, call String.new 1, then n times push constant c, call String.appendChar 2.
+     * Only the code the engine wrote for a literal is one; a String the program builds the same way is its own object.
+     */
+    static String literalAt(VMCode code, int i){
+        if(!code.isLiteral(i) || code.command(i) != Command.PUSH || code.segment(i) != Segment.CONSTANT || i + 1 >= code.size()
+            || !isCall(code, i + 1, "String.new", 1)){
+            return null;
+        }
+        int length = code.operand(i);
+        if(i + 2 + 2 * length > code.size()) return null;
+        StringBuilder text = new StringBuilder(length);
+        for(int k = i + 2; k < i + 2 + 2 * length; k += 2){
+            if(code.command(k) != Command.PUSH || code.segment(k) != Segment.CONSTANT || !isCall(code, k + 1, "String.appendChar", 2)){
+                return null;
+            }
+            text.append((char)code.operand(k));
+        }
+        return text.toString();
+    }
+
+    private static boolean isCall(VMCode code, int i, String name, int arguments){
+        return code.command(i) == Command.CALL && code.operand(i) == arguments && code.nameOf(i).equals(name);
+    }
+
+    static int literalLength(String literal){
+        return 2 + 2 * literal.length();
+    }
+
+    /**
+     * Returns the live functions which start the program and build the pool: Main.main and the roots given with --root.
+     */
+    private List<WholeProgram.Function> entries(){
+        List<WholeProgram.Function> entries = new ArrayList<WholeProgram.Function>();
+        List<String> names = new ArrayList<String>(program.options.roots);
+        names.add("Main.main");
+        for(String name : names){
+            WholeProgram.Function f = program.functions.get(name);
+            if(f != null && f.live && !entries.contains(f)) entries.add(f);
+        }
+        return entries;
+    }
+
+    /**
+     * Gives slots to the literals, the most used first, as long as the static segment has room.
+     * The first slot after the statics of the classes tells whether the pool was built.
+     */
+    private void pool(Map<String, Integer> uses, StringBuilder report){
+        poolClass = "StringPool";
+        for(int n = 1; hasClass(poolClass); n++){
+            poolClass = "StringPool" + n;
+        }
+        List<Map.Entry<String, Integer>> byUses = new ArrayList<Map.Entry<String, Integer>>(uses.entrySet());
+        byUses.sort((a, b) -> b.getValue() - a.getValue());
+        builtSlot = statics;
+        int slot = statics + 1;
+        int pooledUses = 0;
+        for(Map.Entry<String, Integer> literal : byUses){
+            if(slot >= STATIC_LIMIT) break;
+            slots.put(literal.getKey(), slot++);
+            pooledUses += literal.getValue();
+        }
+        report.append("string pool: ").append(slots.size()).append(" of ").append(uses.size()).append(" distinct literals pooled in ")
+            .append(poolClass).append(", ").append(pooledUses).append(" uses");
+        if(slots.size() < uses.size()){
+            report.append(", the others do not fit in the static segment");
+        }
+        report.append('\n');
+        if(!slots.isEmpty()) statics = slot;
+    }
+
+    private boolean hasClass(String name){
+        for(String function : program.functions.keySet()){
+            if(function.startsWith(name + ".")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the code of a function to the image with its statics moved and its pooled literals pushed from the pool.
+     * Returns the number of instructions saved.
+     */
+    private int copy(WholeProgram.Function f, boolean buildsPool, VMCode image){
+        VMCode code = f.code;
+        int saved = 0;
+        image.add(code, 0);
+        if(buildsPool){
+            image.add(Command.CALL, null, 0, image.intern(poolClass + ".init"));
+            image.add(Command.POP, Segment.TEMP, 0, -1);
+        }
+        for(int i = 1; i < code.size(); i++){
+            if(isStatic(code, i)){
+                image.add(code.command(i), Segment.STATIC, bases[f.owner] + code.operand(i), -1);
+                continue;
+            }
+            String literal = slots.isEmpty() ? null : literalAt(code, i);
+            Integer slot = (literal == null) ? null : slots.get(literal);
+            if(slot != null){
+                image.add(Command.PUSH, Segment.STATIC, slot, -1);
+                i += literalLength(literal) - 1;
+                saved += literalLength(literal) - 1;
+            }
+            else image.add(code, i);
+        }
+        return saved;
+    }
+
+    /**
+     * Adds the pool function, which builds every pooled literal into its slot the first time it is called.
+     */
+    private void writePool(VMCode image){
+        int done = image.intern("POOL_BUILT");
+        image.add(Command.FUNCTION, null, 0, image.intern(poolClass + ".init"));
+        image.add(Command.PUSH, Segment.STATIC, builtSlot, -1);
+        image.add(Command.IF_GOTO, null, 0, done);
+        for(Map.Entry<String, Integer> literal : slots.entrySet()){
+            String text = literal.getKey();
+            image.add(Command.PUSH, Segment.CONSTANT, text.length(), -1);
+            image.add(Command.CALL, null, 1, image.intern("String.new"));
+            for(int i = 0; i < text.length(); i++){
+                image.add(Command.PUSH, Segment.CONSTANT, text.charAt(i), -1);
+                image.add(Command.CALL, null, 2, image.intern("String.appendChar"));
+            }
+            image.add(Command.POP, Segment.STATIC, literal.getValue(), -1);
+        }
+        image.add(Command.PUSH, Segment.CONSTANT, 0, -1);
+        image.add(Command.NOT, null, 0, -1);
+        image.add(Command.POP, Segment.STATIC, builtSlot, -1);
+        image.add(Command.LABEL, null, 0, done);
+        image.add(Command.PUSH, Segment.CONSTANT, 0, -1);
+        image.add(Command.RETURN, null, 0, -1);
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * Interns identifiers of a single compilation. Every distinct name gets a small dense id, 
+ * so names can be compared and used as array indices without comparing Strings.
+ * The keywords are interned first, so the id of a keyword is its ordinal.
+ */
+public class NamePool {
+
+    String[] names;
+    int[] hashes;
+    int[] table;
+    int size;
+
+    public NamePool() {
+        this.names = new String[64];
+        this.hashes = new int[64];
+        this.table = new int[128];
+        this.size = 0;
+        for(Keyword keyword : Keyword.values){
+            intern(keyword.text);
+        }
+    }
+
+    /**
+     * Returns the id of the name stored in chars[start..start+length), adding it if it is new.
+     * Does not allocate when the name is already in the pool.
+     */
+    public int intern(char[] chars, int start, int length){
+        int hash = 0;
+        for(int i = start; i < start + length; i++){
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = table.length - 1;
+        for(int slot = mix(hash) & mask; ; slot = (slot + 1) & mask){
+            int id = table[slot] - 1;
+            if(id < 0){
+                return add(new String(chars, start, length), hash, slot);
+            }
+            if(hashes[id] == hash && matches(names[id], chars, start, length)){
+                return id;
+            }
+        }
+    }
+
+    public int intern(String name){
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    public String name(int id){
+        return names[id];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    private int add(String name, int hash, int slot){
+        if(size == names.length){
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+
+        // keep the table at most half full
+        if(size * 2 > table.length){
+            int[] old = table;
+            table = new int[old.length * 2];
+            int mask = table.length - 1;
+            for(int entry : old){
+                if(entry == 0) continue;
+                int s = mix(hashes[entry - 1]) & mask;
+                while(table[s] != 0) s = (s + 1) & mask;
+                table[s] = entry;
+            }
+        }
+        return id;
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int length){
+        if(name.length() != length) return false;
+        for(int i = 0; i < length; i++){
+            if(name.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash){
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A single output file for all the compiled classes, which are added as they finish through one buffered channel.
+ * When the name ends in .zip the bundle is a zip with an entry per class, otherwise it is the .vm texts of the classes
+ * one after the other, each after a "// file name" line, which VM translators skip as a comment.
+ * The name of a class is the path of its .vm file relative to the source directory.
+ */
+public class OutputBundle implements Closeable {
+
+    static final String MARKER = "// file ";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    File file;
+    File root;
+    FileChannel channel;
+    OutputStream out;
+    ZipOutputStream zip;
+    int classes;
+
+    /**
+     * Creates the bundle, replacing an older one.
+     *
+     * @param root the source directory, the class names are relative to it
+     * @param compression the zip deflate level from 0 to 9, not used for a .vm stream
+     */
+    public OutputBundle(File file, File root, int compression) throws IOException {
+        this.file = file;
+        this.root = root.getAbsoluteFile();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        if(isZip(file)){
+            this.zip = new ZipOutputStream(out);
+            this.zip.setLevel(compression);
+        }
+        this.classes = 0;
+    }
+
+    static boolean isZip(File file){
+        return file.getName().endsWith(".zip");
+    }
+
+    /**
+     * Returns the name of the output of a source file: its path relative to the root, with .vm in place of .jack.
+     */
+    public String nameOf(File source){
+        String path = root.toPath().relativize(source.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+        return path.substring(0, path.length() - 4) + "vm";
+    }
+
+    /**
+     * Appends the code of a class. Can be called from several threads, the classes are written one at a time.
+     */
+    public void add(String name, VMCode code) throws IOException{
+        StringBuilder text = new StringBuilder(code.size() * 12 + name.length() + 10);
+        if(zip == null){
+            text.append(MARKER).append(name).append('\n');
+        }
+        code.writeTo(text, 0, code.size());
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        synchronized(this){
+            if(zip != null){
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(bytes);
+                zip.closeEntry();
+            }
+            else out.write(bytes);
+            classes++;
+        }
+    }
+
+    public synchronized void close() throws IOException{
+        if(zip != null){
+            zip.close();
+        }
+        else out.close();
+    }
+
+    /**
+     * Writes every class of a bundle to its own .vm file under the given directory and returns the number of classes.
+     */
+    public static int split(File bundle, File directory) throws IOException{
+        int count = 0;
+        if(isZip(bundle)){
+            try(ZipInputStream in = new ZipInputStream(openBuffered(bundle))){
+                ZipEntry entry;
+                while((entry = in.getNextEntry()) != null){
+                    if(entry.isDirectory()) continue;
+                    writeClass(directory, entry.getName(), in.readAllBytes());
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(openBuffered(bundle), StandardCharsets.US_ASCII), BUFFER_SIZE)){
+            String name = null;
+            StringBuilder text = new StringBuilder();
+            String line;
+            while((line = in.readLine()) != null){
+                if(line.startsWith(MARKER)){
+                    if(name != null){
+                        writeClass(directory, name, text.toString().getBytes(StandardCharsets.US_ASCII));
+                        count++;
+                    }
+                    name = line.substring(MARKER.length());
+                    text.setLength(0);
+                }
+                else if(name == null){
+                    throw new IOException(bundle + " is not a bundle, it does not start with a '" + MARKER + "' line");
+                }
+                else text.append(line).append('\n');
+            }
+            if(name != null){
+                writeClass(directory, name, text.toString().getBytes(StandardCharsets.US_ASCII));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static InputStream openBuffered(File file) throws IOException{
+        return new BufferedInputStream(Channels.newInputStream(FileChannel.open(file.toPath())), BUFFER_SIZE);
+    }
+
+    private static void writeClass(File directory, String name, byte[] bytes) throws IOException{
+        File output = new File(directory, name);
+        // a bundle only names files under the directory
+        if(!output.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator)){
+            throw new IOException("bundle entry " + name + " is outside of " + directory);
+        }
+        output.getParentFile().mkdirs();
+        try(OutputStream out = new FileOutputStream(output)){
+            out.write(bytes);
+        }
+    }
+}
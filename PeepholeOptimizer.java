@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+/**
+ * Rewrites short instruction patterns of the generated VM code into cheaper equivalents.
+ * The rules are applied to one function at a time, pass after pass, until no rule matches.
+ */
+public class PeepholeOptimizer {
+
+    static final int PUSH_POP = 0;
+    static final int DOUBLE_NEGATION = 1;
+    static final int CONSTANT_UNARY = 2;
+    static final int CONSTANT_BRANCH = 3;
+    static final int ZERO_OPERAND = 4;
+    static final int NOT_EQUAL_BRANCH = 5;
+    static final int INVERTED_IF = 6;
+    static final int ROTATED_WHILE = 7;
+    static final int ARRAY_STORE = 8;
+    static final int GOTO_NEXT = 9;
+
+    static final String[] RULES = {"push-pop", "double-negation", "constant-unary", "constant-branch", "zero-operand",
+        "not-equal-branch", "inverted-if", "rotated-while", "array-store", "goto-next"};
+
+    // number of times each rule was applied
+    long[] hits;
+    long instructionsIn, instructionsOut;
+
+    // number of jumps to each label of the current function, indexed by name id
+    int[] labelRefs;
+
+    // the input and output of a pass, swapped after every pass
+    VMCode front, back;
+
+    public PeepholeOptimizer() {
+        this.hits = new long[RULES.length];
+        this.labelRefs = new int[64];
+    }
+
+    /**
+     * Returns an optimized copy of the given code which shares its string pool.
+     */
+    public VMCode optimize(VMCode code){
+        VMCode result = new VMCode(code.strings);
+        int start = 0;
+        while(start < code.size()){
+            int end = start + 1;
+            while(end < code.size() && code.command(end) != Command.FUNCTION) end++;
+            optimizeFunction(code, start, end, result);
+            start = end;
+        }
+        instructionsIn += code.size();
+        instructionsOut += result.size();
+        return result;
+    }
+
+    private void optimizeFunction(VMCode code, int start, int end, VMCode result){
+        if(front == null || front.strings != code.strings){
+            front = new VMCode(code.strings);
+            back = new VMCode(code.strings);
+        }
+        front.truncate(0);
+        copy(code, start, end, front);
+
+        boolean changed = true;
+        while(changed){
+            back.truncate(0);
+            changed = pass(front, back);
+            VMCode swap = front;
+            front = back;
+            back = swap;
+        }
+
+        copy(front, 0, front.size(), result);
+    }
+
+    /**
+     * Copies in to out, rewriting every match of a rule. Returns whether anything was rewritten.
+     */
+    private boolean pass(VMCode in, VMCode out){
+        countLabelRefs(in);
+        boolean changed = false;
+        int i = 0;
+        while(i < in.size()){
+            int next = rewrite(in, i, out);
+            if(next < 0){
+                out.add(in, i++);
+            }
+            else{
+                i = next;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tries every rule at index i. When one matches its replacement is added to out and
+     * the index after the matched instructions is returned, otherwise -1 is returned.
+     */
+    private int rewrite(VMCode in, int i, VMCode out){
+        int n = in.size();
+        Command c = in.command(i);
+
+        if(c == Command.PUSH && in.segment(i) != Segment.CONSTANT && i + 1 < n && in.command(i + 1) == Command.POP
+            && in.segment(i + 1) == in.segment(i) && in.operand(i + 1) == in.operand(i)){
+            hits[PUSH_POP]++;
+            return i + 2;
+        }
+
+        if((c == Command.NOT || c == Command.NEG) && i + 1 < n && in.command(i + 1) == c){
+            hits[DOUBLE_NEGATION]++;
+            return i + 2;
+        }
+
+        if(c == Command.PUSH && in.segment(i) == Segment.CONSTANT){
+            // evaluate a chain of neg and not on a constant
+            int value = in.operand(i);
+            int j = i + 1;
+            while(j < n && (in.command(j) == Command.NEG || in.command(j) == Command.NOT)){
+                value = (short)(in.command(j) == Command.NEG ? -value : ~value);
+                j++;
+            }
+            if(j < n && in.command(j) == Command.IF_GOTO){
+                if(value != 0){
+                    out.add(Command.GOTO, null, 0, in.name(j));
+                }
+                hits[CONSTANT_BRANCH]++;
+                return j + 1;
+            }
+            if(j > i + 1 && value >= 0){
+                out.add(Command.PUSH, Segment.CONSTANT, value, -1);
+                hits[CONSTANT_UNARY]++;
+                return j;
+            }
+            if(in.operand(i) == 0 && i + 1 < n && (in.command(i + 1) == Command.ADD || in.command(i + 1) == Command.SUB
+                || in.command(i + 1) == Command.OR)){
+                hits[ZERO_OPERAND]++;
+                return i + 2;
+            }
+        }
+
+        // x != y exactly when x - y != 0
+        if(c == Command.EQ && i + 2 < n && in.command(i + 1) == Command.NOT && in.command(i + 2) == Command.IF_GOTO){
+            out.add(Command.SUB, null, 0, -1);
+            out.add(in, i + 2);
+            hits[NOT_EQUAL_BRANCH]++;
+            return i + 3;
+        }
+
+        if(c == Command.NOT && i + 1 < n && in.command(i + 1) == Command.IF_GOTO){
+            int next = invertIf(in, i, out);
+            if(next >= 0){
+                hits[INVERTED_IF]++;
+                return next;
+            }
+        }
+
+        if(c == Command.LABEL){
+            int next = rotateWhile(in, i, out);
+            if(next >= 0){
+                hits[ROTATED_WHILE]++;
+                return next;
+            }
+        }
+
+        if(c == Command.PUSH && i + 4 < n && in.segment(i) != Segment.THAT && in.segment(i) != Segment.POINTER
+            && isInstruction(in, i + 1, Command.POP, Segment.TEMP, 0) && isInstruction(in, i + 2, Command.POP, Segment.POINTER, 1)
+            && isInstruction(in, i + 3, Command.PUSH, Segment.TEMP, 0) && isInstruction(in, i + 4, Command.POP, Segment.THAT, 0)){
+            // the address is right below the pushed value, so it can be popped to THAT before the push
+            out.add(in, i + 2);
+            out.add(in, i);
+            out.add(in, i + 4);
+            hits[ARRAY_STORE]++;
+            return i + 5;
+        }
+
+        if(c == Command.GOTO && i + 1 < n && in.command(i + 1) == Command.LABEL && in.name(i + 1) == in.name(i)){
+            hits[GOTO_NEXT]++;
+            return i + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Rewrites "not; if-goto L1; A; goto L2; label L1; B; label L2" to "if-goto L1; B; goto L2; label L1; A; label L2"
+     * when the condition is a boolean.
+     */
+    private int invertIf(VMCode in, int i, VMCode out){
+        if(!isBoolean(in, i - 1)) return -1;
+        int elseLabel = in.name(i + 1);
+        if(labelRefs[elseLabel] != 1) return -1;
+
+        int j = findLabel(in, elseLabel, i + 2);
+        if(j < 0 || in.command(j - 1) != Command.GOTO) return -1;
+        int endLabel = in.name(j - 1);
+        int k = findLabel(in, endLabel, j + 1);
+        if(k < 0) return -1;
+
+        out.add(in, i + 1);
+        copy(in, j + 1, k, out);
+        out.add(in, j - 1);
+        out.add(in, j);
+        copy(in, i + 2, j - 1, out);
+        out.add(in, k);
+        return k + 1;
+    }
+
+    /**
+     * Rewrites "label L0; C; not; if-goto L1; B; goto L0; label L1" to "goto L1; label L0; B; label L1; C; if-goto L0",
+     * so every iteration runs one conditional jump instead of a not, a conditional jump and a jump. C must end in a boolean.
+     */
+    private int rotateWhile(VMCode in, int i, VMCode out){
+        int startLabel = in.name(i);
+        if(labelRefs[startLabel] != 1) return -1;
+
+        int q = i + 1;
+        while(q + 1 < in.size() && !(in.command(q) == Command.GOTO && in.name(q) == startLabel)) q++;
+        if(q + 1 >= in.size() || in.command(q + 1) != Command.LABEL) return -1;
+        int endLabel = in.name(q + 1);
+        if(labelRefs[endLabel] != 1) return -1;
+
+        int p = i + 1;
+        while(p < q && !(in.command(p) == Command.IF_GOTO && in.name(p) == endLabel)) p++;
+        if(p == q || in.command(p - 1) != Command.NOT || !isBoolean(in, p - 2)) return -1;
+
+        out.add(Command.GOTO, null, 0, endLabel);
+        out.add(in, i);
+        copy(in, p + 1, q, out);
+        out.add(in, q + 1);
+        copy(in, i + 1, p - 1, out);
+        out.add(Command.IF_GOTO, null, 0, startLabel);
+        return q + 2;
+    }
+
+    /**
+     * Returns whether the value left by the instruction at k is always true or false, -1 or 0. Only then is leaving out
+     * a not and swapping the branches the same: not of another value, such as 5, is neither 0 nor -1.
+     */
+    private static boolean isBoolean(VMCode in, int k){
+        if(k < 0) return false;
+        switch(in.command(k)){
+            case EQ:
+            case GT:
+            case LT:
+                return true;
+            case NOT:
+                return isBoolean(in, k - 1);
+            case NEG:
+                // true is written as push constant 1; neg
+                return k > 0 && isInstruction(in, k - 1, Command.PUSH, Segment.CONSTANT, 1);
+            case PUSH:
+                return in.segment(k) == Segment.CONSTANT && in.operand(k) == 0;
+            default:
+                return false;
+        }
+    }
+
+    private void countLabelRefs(VMCode in){
+        if(labelRefs.length < in.strings.size()){
+            labelRefs = new int[in.strings.size() * 2];
+        }
+        else Arrays.fill(labelRefs, 0);
+        for(int i = 0; i < in.size(); i++){
+            if(in.command(i) == Command.GOTO || in.command(i) == Command.IF_GOTO){
+                labelRefs[in.name(i)]++;
+            }
+        }
+    }
+
+    private static int findLabel(VMCode in, int label, int from){
+        for(int i = from; i < in.size(); i++){
+            if(in.command(i) == Command.LABEL && in.name(i) == label) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isInstruction(VMCode in, int i, Command command, Segment segment, int operand){
+        return in.command(i) == command && in.segment(i) == segment && in.operand(i) == operand;
+    }
+
+    private static void copy(VMCode in, int from, int to, VMCode out){
+        for(int i = from; i < to; i++){
+            out.add(in, i);
+        }
+    }
+
+    /**
+     * Adds the counters of another optimizer to this one.
+     */
+    public synchronized void merge(PeepholeOptimizer other){
+        for(int i = 0; i < hits.length; i++){
+            hits[i] += other.hits[i];
+        }
+        instructionsIn += other.instructionsIn;
+        instructionsOut += other.instructionsOut;
+    }
+
+    public String report(){
+        StringBuilder out = new StringBuilder("peephole: " + instructionsIn + " -> " + instructionsOut + " instructions\n");
+        for(int i = 0; i < RULES.length; i++){
+            out.append("  ").append(RULES[i]).append(": ").append(hits[i]).append('\n');
+        }
+        return out.toString();
+    }
+}
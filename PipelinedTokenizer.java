@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A tokenizer which finds the tokens on another thread while the parser consumes them.
+ * The producer scans the buffer into a ring of packed tokens with one writer and one reader and no locks,
+ * the parser's thread only unpacks them and interns the identifiers, so the name pool is never shared between threads.
+ */
+class PipelinedTokenizer extends JackTokenizer {
+
+    // number of tokens the ring holds, a power of two
+    static final int CAPACITY = 4096;
+    static final int MASK = CAPACITY - 1;
+
+    // spins before a waiting side starts to park
+    static final int SPINS = 256;
+
+    // the counters are published every BATCH tokens, and a producer which found the ring full waits for this much room
+    static final int BATCH = 64;
+
+    // the counters are far apart in one array so the two threads do not write the same cache line
+    static final int PUBLISHED = 16;
+    static final int CONSUMED = 48;
+
+    // threads of the producers here and of the writers of PipelinedVMWriter
+    static final ExecutorService stages = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "jack-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // token k is at k & MASK, bounds holds its start << 32 | end, kinds its type ordinal and keyword ordinal + 1 << 8
+    final long[] bounds;
+    final int[] kinds;
+
+    // number of tokens written by the producer and read by the consumer, at PUBLISHED and CONSUMED
+    final AtomicLongArray counters;
+
+    // the consumer's next token and its latest copy of the published counter
+    long next, knownPublished;
+
+    // set by the producer after its last token, with the error which stopped it if any
+    volatile boolean finished;
+    IOException failure;
+
+    // set by the consumer when it stops reading, so a producer waiting for room gives up
+    volatile boolean cancelled;
+
+    public PipelinedTokenizer(Reader source, int sizeHint) throws IOException {
+        super(source, sizeHint);
+        this.bounds = new long[CAPACITY];
+        this.kinds = new int[CAPACITY];
+        this.counters = new AtomicLongArray(CONSUMED + 16);
+        this.next = 0;
+        JackTokenizer scanner = JackTokenizer.scanner(buffer, end);
+        stages.execute(() -> produce(scanner));
+    }
+
+    private void produce(JackTokenizer scanner){
+        long n = 0, knownConsumed = 0;
+        try{
+            while(scanner.hasMoreTokens()){
+                scanner.advance();
+                if(n - knownConsumed >= CAPACITY){
+                    counters.lazySet(PUBLISHED, n);
+                    int spins = 0;
+                    while(n - (knownConsumed = counters.get(CONSUMED)) > CAPACITY - BATCH){
+                        if(cancelled) return;
+                        spins = pause(spins);
+                    }
+                }
+                int slot = (int)n & MASK;
+                bounds[slot] = (long)scanner.tokenStart << 32 | scanner.tokenEnd;
+                kinds[slot] = scanner.currentType.ordinal() | (scanner.currentKeyword == null ? 0 : scanner.currentKeyword.ordinal() + 1) << 8;
+                if((++n & (BATCH - 1)) == 0){
+                    counters.lazySet(PUBLISHED, n);
+                }
+            }
+        }
+        catch(IOException e){
+            failure = e;
+        }
+        finally{
+            counters.lazySet(PUBLISHED, n);
+            finished = true;
+        }
+    }
+
+    /**
+     * Waits until token k was published. Returns false if the producer finished before it.
+     */
+    private boolean await(long k) throws IOException{
+        int spins = 0;
+        while(k >= knownPublished){
+            // the producer may be waiting for room
+            counters.lazySet(CONSUMED, next);
+            boolean done = finished;
+            knownPublished = counters.get(PUBLISHED);
+            if(k < knownPublished) break;
+            if(done){
+                if(failure != null) throw failure;
+                return false;
+            }
+            spins = pause(spins);
+        }
+        return true;
+    }
+
+    private static int pause(int spins){
+        if(spins < SPINS){
+            Thread.onSpinWait();
+        }
+        else{
+            LockSupport.parkNanos(10_000);
+        }
+        return spins + 1;
+    }
+
+    @Override
+    public boolean hasMoreTokens() throws IOException{
+        return await(next);
+    }
+
+    @Override
+    public void advance() throws IOException{
+        if(!await(next)){
+            throw new IOException("line " + lineOf(end) + ": unexpected end of file");
+        }
+        int slot = (int)next & MASK;
+        tokenStart = (int)(bounds[slot] >>> 32);
+        tokenEnd = (int)bounds[slot];
+        currentType = Type.values[kinds[slot] & 0xFF];
+        int keyword = kinds[slot] >>> 8;
+        currentKeyword = (keyword == 0) ? null : Keyword.values[keyword - 1];
+        if(currentKeyword != null){
+            tokenId = keyword - 1;
+        }
+        else if(currentType == Type.IDENTIFIER){
+            tokenId = names.intern(buffer, tokenStart, tokenEnd - tokenStart);
+        }
+        else tokenId = -1;
+        pos = tokenEnd;
+        tokenCount++;
+        if((++next & (BATCH - 1)) == 0){
+            counters.lazySet(CONSUMED, next);
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        cancelled = true;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A writer which hands every finished function to another thread, which optimizes it and writes it to the output
+ * while the next function is compiled. Only the function being compiled is kept, so getCode() holds just that one.
+ */
+class PipelinedVMWriter extends VMWriter {
+
+    // functions waiting for the writer thread
+    static final int QUEUE_SIZE = 64;
+
+    // the marker after the last function
+    static final VMCode END = new VMCode();
+
+    BlockingQueue<VMCode> queue;
+    Future<?> writer;
+
+    // number of instructions handed to the writer thread, position() counts them too
+    int flushed;
+
+    public PipelinedVMWriter(File output, CompilerOptions options) throws IOException {
+        super(output, options);
+        this.queue = new ArrayBlockingQueue<VMCode>(QUEUE_SIZE);
+        this.flushed = 0;
+        OutputStream out = new FileOutputStream(output);
+        this.writer = PipelinedTokenizer.stages.submit(() -> {
+            drain(out);
+            return null;
+        });
+    }
+
+    private void drain(OutputStream out) throws IOException, InterruptedException{
+        try(OutputStream stream = out){
+            StringBuilder text = new StringBuilder();
+            VMCode function;
+            while((function = queue.take()) != END){
+                long start = System.nanoTime();
+                if(optimizer != null){
+                    function = optimizer.optimize(function);
+                }
+                if(compactor != null){
+                    function = compactor.compact(function);
+                }
+                long optimized = System.nanoTime();
+                text.setLength(0);
+                function.writeTo(text, 0, function.size());
+                stream.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+                optimizeNanos += optimized - start;
+                writeNanos += System.nanoTime() - optimized;
+            }
+        }
+    }
+
+    @Override
+    public void writeFunction(String name, int nVars) throws IOException{
+        // the previous function is finished, nothing before this point is changed any more
+        if(code.size() > 0){
+            flushed += code.size();
+            hand(code);
+            code = new VMCode();
+        }
+        super.writeFunction(name, nVars);
+    }
+
+    private void hand(VMCode function) throws IOException{
+        try{
+            while(!queue.offer(function, 10, TimeUnit.MILLISECONDS)){
+                if(writer.isDone()){
+                    // the writer thread failed, get() throws its error
+                    finish();
+                }
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing " + output);
+        }
+    }
+
+    private void finish() throws IOException{
+        try{
+            writer.get();
+        }
+        catch(ExecutionException e){
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException(e.getCause());
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing " + output);
+        }
+    }
+
+    @Override
+    public int position(){
+        return flushed + code.size();
+    }
+
+    @Override
+    public Command commandAt(int position){
+        return code.command(position - flushed);
+    }
+
+    @Override
+    public void truncate(int position){
+        code.truncate(position - flushed);
+    }
+
+    @Override
+    public void remove(int from, int to){
+        code.remove(from - flushed, to - flushed);
+    }
+
+    /**
+     * Hands the last function to the writer thread and waits until everything is written.
+     */
+    @Override
+    public void close() throws IOException{
+        if(code.size() > 0){
+            hand(code);
+        }
+        hand(END);
+        finish();
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compiles every program under the regression directory with each of the compiler modes, runs it on the VMInterpreter
+ * and compares the output with the expected.txt of the program. A program is a directory of .jack files.
+ *
+ * usage: RegressionRunner [directory]
+ */
+public class RegressionRunner {
+
+    // the compiler arguments of each mode, --link is given the file to link into
+    static final String[] MODES = {
+        "-O0", "-O1", "-O2", "--peephole", "--compact", "--ast", "--whole-program", "--inline 40", "--link"
+    };
+
+    // a program which runs longer than this is taken to be stuck
+    static final long LIMIT = 10_000_000;
+
+    static final String EXPECTED_NAME = "expected.txt";
+
+    public static void main(String[] args) throws IOException {
+        File root = new File((args.length > 0) ? args[0] : "regression");
+        File[] programs = root.listFiles(File::isDirectory);
+        if(programs == null){
+            throw new IllegalArgumentException("usage: RegressionRunner [directory]");
+        }
+        Arrays.sort(programs);
+
+        int failed = 0;
+        int runs = 0;
+        for(File program : programs){
+            File expectedFile = new File(program, EXPECTED_NAME);
+            if(!expectedFile.isFile()){
+                System.out.println(program.getName() + ": FAIL, no " + EXPECTED_NAME);
+                failed++;
+                continue;
+            }
+            String expected = new String(Files.readAllBytes(expectedFile.toPath()), StandardCharsets.UTF_8);
+            for(String mode : MODES){
+                runs++;
+                String failure = check(program, mode, expected);
+                if(failure != null){
+                    System.out.println(program.getName() + " " + mode + ": FAIL, " + failure);
+                    failed++;
+                }
+                else System.out.println(program.getName() + " " + mode + ": ok");
+            }
+        }
+        System.out.println((runs - failed) + " of " + runs + " runs passed");
+        if(failed > 0){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles a copy of the program with the mode and runs it, returns why the output is wrong or null if it is right.
+     */
+    static String check(File program, String mode, String expected) throws IOException{
+        File directory = Files.createTempDirectory("regression").toFile();
+        try{
+            List<File> files = new ArrayList<File>();
+            File[] sources = program.listFiles((d, name) -> name.endsWith(".jack"));
+            if(sources != null){
+                for(File source : sources){
+                    File copy = new File(directory, source.getName());
+                    Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    files.add(copy);
+                }
+            }
+
+            List<String> arguments = new ArrayList<String>(Arrays.asList(mode.split(" ")));
+            if(mode.equals("--link")){
+                arguments.add(new File(directory, "Program.vm").getPath());
+            }
+            arguments.add(directory.getPath());
+            CompilerOptions options = CompilerOptions.parse(arguments.toArray(new String[0]));
+
+            Queue<String> failures = new ConcurrentLinkedQueue<String>();
+            if(options.wholeProgram){
+                JackAnalyzer.compileProgram(files, options, null, failures);
+            }
+            else JackAnalyzer.compileAll(files, options, null, null, failures);
+            if(!failures.isEmpty()){
+                return "does not compile: " + failures.peek();
+            }
+
+            VMInterpreter interpreter = new VMInterpreter();
+            interpreter.load(directory);
+            try{
+                interpreter.run(LIMIT);
+            }
+            catch(VMInterpreter.VMException e){
+                return e.getMessage();
+            }
+            String output = interpreter.output().toString();
+            if(!output.isEmpty() && !output.endsWith("\n")){
+                output += "\n";
+            }
+            if(!output.equals(expected)){
+                return "expected\n" + expected + "but printed\n" + output;
+            }
+            return null;
+        }
+        finally{
+            File[] written = directory.listFiles();
+            if(written != null){
+                for(File f : written){
+                    f.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+public enum Segment {
+    CONSTANT("constant"),
+    ARGUMENT("argument"),
+    LOCAL("local"),
+    STATIC("static"),
+    THIS("this"),
+    THAT("that"),
+    POINTER("pointer"),
+    TEMP("temp");
+
+    public final String text;
+    static final Segment[] values = values();
+
+    Segment(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the compiler running and recompiles the .jack files under the source directory whenever they change.
+ * Editors usually write a file in several steps, so changes are collected until no event arrived for DEBOUNCE_MILLIS.
+ */
+public class SourceWatcher {
+
+    static final long DEBOUNCE_MILLIS = 30;
+
+    // the sources are compiled in memory for up to this long before watching, so the JIT compiles the compiler
+    static final long WARM_UP_MILLIS = 500;
+
+    CompilerOptions options;
+    CompileCache cache;
+    File root;
+    File singleFile;
+    WatchService watchService;
+    Map<WatchKey, Path> directories;
+
+    public SourceWatcher(CompilerOptions options, CompileCache cache) throws IOException {
+        this.options = options;
+        this.cache = cache;
+        File source = options.source.toPath().toAbsolutePath().normalize().toFile();
+        this.root = source.isDirectory() ? source : source.getParentFile();
+        this.singleFile = source.isDirectory() ? null : source;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.directories = new HashMap<WatchKey, Path>();
+    }
+
+    /**
+     * Watches the sources until the process is stopped.
+     */
+    public void run() throws IOException, InterruptedException{
+        warmUp();
+        register(root);
+        System.out.println("watching " + root + " for changes");
+
+        while(true){
+            Set<File> changed = new LinkedHashSet<File>();
+            WatchKey key = watchService.take();
+            while(key != null){
+                collect(key, changed);
+                key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            for(File f : changed){
+                recompile(f);
+            }
+            if(cache != null && !changed.isEmpty()){
+                cache.save();
+            }
+        }
+    }
+
+    private void warmUp(){
+        List<File> files = new ArrayList<File>();
+        JackAnalyzer.collectSources(singleFile != null ? singleFile : root, files);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARM_UP_MILLIS);
+        while(!files.isEmpty() && System.nanoTime() < deadline){
+            for(File f : files){
+                try{
+                    CompilationEngine cEng = CompilationEngine.create(new JackTokenizer(f), new VMWriter(), options);
+                    cEng.compileClass();
+                    cEng.close();
+                }
+                catch(Exception e){
+                    // the error is reported when the file is compiled for real
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<File> changed) throws IOException{
+        Path directory = directories.get(key);
+        for(WatchEvent<?> event : key.pollEvents()){
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) continue;
+            File f = directory.resolve((Path)event.context()).toFile();
+            if(f.isDirectory() && singleFile == null){
+                // a new directory may already contain sources
+                register(f);
+                List<File> files = new ArrayList<File>();
+                JackAnalyzer.collectSources(f, files);
+                changed.addAll(files);
+            }
+            else if(f.getName().endsWith(".jack") && f.isFile() && (singleFile == null || f.equals(singleFile))){
+                changed.add(f);
+            }
+        }
+        if(!key.reset()){
+            directories.remove(key);
+        }
+    }
+
+    private void register(File directory) throws IOException{
+        WatchKey key = directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        directories.put(key, directory.toPath());
+        if(singleFile != null) return;
+
+        File[] children = directory.listFiles();
+        if(children == null) return;
+        for(File child : children){
+            if(child.isDirectory()){
+                register(child);
+            }
+        }
+    }
+
+    private void recompile(File f){
+        Queue<String> failures = new ConcurrentLinkedQueue<String>();
+        long start = System.nanoTime();
+        JackAnalyzer.compileFile(f, options, cache, failures);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        if(failures.isEmpty()){
+            System.out.printf("compiled %s in %.2f ms%n", f.getName(), millis);
+        }
+        else{
+            for(String failure : failures){
+                System.err.println(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a subroutine compiled by CompilationEngine.
+ * The instructions are counted as written, before the peephole optimizer runs.
+ */
+@Name("jack.SubroutineCompiled")
+@Label("Subroutine Compiled")
+@Category("Jack Compiler")
+class SubroutineCompiledEvent extends Event {
+
+    @Label("Subroutine")
+    String subroutine;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Instructions")
+    long instructions;
+}
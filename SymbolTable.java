@@ -1,74 +1,125 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class SymbolTable {
-    
-    Map<String, SymbolEntry> symbols;
-    int fieldCount;
-    int staticCount;
-    int argCount;
-    int localCount;
-
-    class SymbolEntry{
-        String type;
-        String kind;
-        int index;
-
-        SymbolEntry(String type, String kind, int index) {
-            this.type = type;
-            this.kind = kind;
-            this.index = index;
-        }
-    }
+
+    // the symbols of the current scope in order of definition, names and types are ids in the compilation's NamePool
+    int[] names;
+    int[] types;
+    byte[] kinds;
+    int[] indexes;
+    int size;
+
+    // open addressing table from name id to position in the arrays above. A slot is only in use when its stamp
+    // equals scope, so reset() starts a new scope without clearing anything
+    int[] table;
+    int[] stamps;
+    int mask;
+    int scope;
+
+    // number of variables of each kind, indexed by Kind ordinal
+    int[] counts;
 
     public SymbolTable() {
-        this.symbols = new HashMap<String, SymbolEntry>();
-        this.fieldCount = 0;
-        this.staticCount = 0;
-        this.argCount = 0;
-        this.localCount = 0;
+        this.names = new int[16];
+        this.types = new int[16];
+        this.kinds = new byte[16];
+        this.indexes = new int[16];
+        this.size = 0;
+        this.table = new int[32];
+        this.stamps = new int[32];
+        this.mask = 31;
+        this.scope = 1;
+        this.counts = new int[Kind.values.length];
     }
 
-    public void define(String name, String type, String kind){
-        SymbolEntry entry = new SymbolEntry(type, kind, varCount(kind));
-        symbols.put(name, entry);
+    public void define(int name, int type, Kind kind){
+        int i = find(name);
+        if(i < 0){
+            if(size == names.length){
+                grow();
+            }
+            if((size + 1) * 2 > table.length){
+                rehash(table.length * 2);
+            }
+            i = size++;
+            names[i] = name;
+            int h = name & mask;
+            while(stamps[h] == scope) h = (h + 1) & mask;
+            table[h] = i;
+            stamps[h] = scope;
+        }
+        types[i] = type;
+        kinds[i] = (byte)kind.ordinal();
+        indexes[i] = counts[kind.ordinal()]++;
     }
 
-    public int varCount(String kind){
-        switch (kind){
-            case "STATIC":
-                return staticCount++;
-            case "FIELD":
-                return fieldCount++;
-            case "ARG":
-                return argCount++;
-            default:
-                return localCount++;
-        }
+    /**
+     * Returns the number of variables of the given kind defined in the current scope.
+     */
+    public int varCount(Kind kind){
+        return counts[kind.ordinal()];
     }
 
-    public String kindOf(String name){
-        return (symbols.containsKey(name)) ? symbols.get(name).kind : "NONE" ;
+    public Kind kindOf(int name){
+        int i = find(name);
+        return (i >= 0) ? Kind.values[kinds[i]] : Kind.NONE;
     }
 
-    public String typeOf(String name){
-        return symbols.get(name).type;
+    /**
+     * Returns the name id of the type of the given variable.
+     */
+    public int typeOf(int name){
+        return types[find(name)];
     }
 
-    public int indexOf(String name){
-        return symbols.get(name).index;
+    public int indexOf(int name){
+        return indexes[find(name)];
     }
 
-    public boolean contains(String name){
-        return symbols.containsKey(name);
+    public boolean contains(int name){
+        return find(name) >= 0;
     }
 
+    /**
+     * Forgets all the symbols, keeping the storage for the next scope.
+     */
     public void reset(){
-        symbols.clear();
-        fieldCount = 0;
-        staticCount = 0;
-        argCount = 0;
-        localCount = 0;
+        size = 0;
+        Arrays.fill(counts, 0);
+        if(++scope == 0){
+            // the stamps wrapped around, so old slots could look in use
+            Arrays.fill(stamps, 0);
+            scope = 1;
+        }
+    }
+
+    private int find(int name){
+        if(name < 0) return -1;
+        // name ids are small and dense, so they are their own hash
+        for(int h = name & mask; stamps[h] == scope; h = (h + 1) & mask){
+            if(names[table[h]] == name) return table[h];
+        }
+        return -1;
+    }
+
+    private void grow(){
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        types = Arrays.copyOf(types, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        indexes = Arrays.copyOf(indexes, capacity);
+    }
+
+    private void rehash(int capacity){
+        table = new int[capacity];
+        stamps = new int[capacity];
+        mask = capacity - 1;
+        for(int i = 0; i < size; i++){
+            int h = names[i] & mask;
+            while(stamps[h] == scope) h = (h + 1) & mask;
+            table[h] = i;
+            stamps[h] = scope;
+        }
     }
 
 }
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * The syntax tree of a class in flat int arrays, so building it allocates no object per node.
+ * Node n has a kind, its first child and its next sibling (-1 for none) and a token: the name id of a name,
+ * the value of an int constant, the char of an operator or the ordinal of a keyword or a Kind.
+ */
+public class SyntaxTree {
+
+    static final int CLASS = 0;             // token: class name, children: VAR_DECs, SUBROUTINEs
+    static final int VAR_DEC = 1;           // token: Kind ordinal, children: TYPE, NAMEs
+    static final int TYPE = 2;              // token: type name
+    static final int NAME = 3;              // token: name
+    static final int SUBROUTINE = 4;        // token: keyword ordinal, children: NAME, parameter and local VAR_DECs, STATEMENTS
+    static final int STATEMENTS = 5;        // children: statements
+    static final int LET = 6;               // token: variable, children: EXPRESSION
+    static final int LET_ELEMENT = 7;       // token: array variable, children: index EXPRESSION, value EXPRESSION
+    static final int IF = 8;                // children: EXPRESSION, STATEMENTS, else STATEMENTS if any
+    static final int WHILE = 9;             // children: EXPRESSION, STATEMENTS
+    static final int DO = 10;               // children: CALL or QUALIFIED_CALL
+    static final int RETURN = 11;           // children: EXPRESSION if any
+    static final int EXPRESSION = 12;       // children: terms with an OPERATOR between every two
+    static final int OPERATOR = 13;         // token: operator char
+    static final int INT_CONST = 14;        // token: value
+    static final int STRING_CONST = 15;     // token: id of the string in the name pool
+    static final int KEYWORD_CONST = 16;    // token: keyword ordinal
+    static final int VARIABLE = 17;         // token: name
+    static final int ELEMENT = 18;          // token: array variable, children: index EXPRESSION
+    static final int UNARY = 19;            // token: operator char, children: term
+    static final int CALL = 20;             // token: subroutine name, children: argument EXPRESSIONs
+    static final int QUALIFIED_CALL = 21;   // token: class or variable name, children: NAME of the subroutine, argument EXPRESSIONs
+
+    int[] kinds;
+    int[] children;
+    int[] siblings;
+    int[] tokens;
+    int size;
+
+    // the last child of every node, only needed while the tree is built
+    int[] lastChildren;
+
+    public SyntaxTree(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.kinds = new int[capacity];
+        this.children = new int[capacity];
+        this.siblings = new int[capacity];
+        this.tokens = new int[capacity];
+        this.lastChildren = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Adds a node as the last child of parent, or as a root for parent -1, and returns it.
+     */
+    public int add(int parent, int kind, int token){
+        if(size == kinds.length){
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            children = Arrays.copyOf(children, capacity);
+            siblings = Arrays.copyOf(siblings, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+        }
+        int node = size++;
+        kinds[node] = kind;
+        tokens[node] = token;
+        children[node] = -1;
+        siblings[node] = -1;
+        lastChildren[node] = -1;
+        if(parent >= 0){
+            if(lastChildren[parent] < 0) children[parent] = node;
+            else siblings[lastChildren[parent]] = node;
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Forgets all the nodes, keeping the storage.
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int kind(int node){
+        return kinds[node];
+    }
+
+    public int child(int node){
+        return children[node];
+    }
+
+    public int sibling(int node){
+        return siblings[node];
+    }
+
+    public int token(int node){
+        return tokens[node];
+    }
+}
@@ -0,0 +1,751 @@
+import java.io.IOException;
+
+/**
+ * A compilation engine which reads the whole class into a SyntaxTree before it writes any code, then walks the tree.
+ * The code is the same as the single pass engine's, and the tree lets passes look at a whole subroutine,
+ * the assignment counts for constant propagation are taken from it instead of a second scan of the tokens.
+ */
+public class TreeCompiler extends CompilationEngine {
+
+    SyntaxTree tree;
+
+    // the tree was built and code is written from it, the tokens of the nodes are no longer at hand
+    boolean parsed;
+
+    public TreeCompiler(JackTokenizer tokenizer, VMWriter vmWriter, CompilerOptions options) {
+        super(tokenizer, vmWriter, options);
+        // about one node for every two tokens
+        this.tree = new SyntaxTree(tokenizer.end / 8);
+    }
+
+    @Override
+    public void compileClass() throws IOException{
+        tree.clear();
+        parsed = false;
+        int root = parseClass();
+        parsed = true;
+        generateClass(root);
+    }
+
+    /**
+     * Builds the tree of the class, the token handling is the one of the single pass engine.
+     */
+    int parseClass() throws IOException{
+        // class
+        tokenizer.advance();
+
+        // className
+        tokenizer.advance();
+        int root = tree.add(-1, SyntaxTree.CLASS, tokenizer.identifierId());
+
+        // {
+        tokenizer.advance();
+        expect('{');
+
+        tokenizer.advance();
+        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword() == Keyword.STATIC || tokenizer.keyword() == Keyword.FIELD)){
+            Kind kind = (tokenizer.keyword() == Keyword.STATIC) ? Kind.STATIC : Kind.FIELD;
+            parseVarDec(root, kind);
+            tokenizer.advance();
+        }
+
+        while(tokenizer.tokenType() == Type.KEYWORD && (tokenizer.keyword() == Keyword.FUNCTION || tokenizer.keyword() == Keyword.CONSTRUCTOR
+           || tokenizer.keyword() == Keyword.METHOD)){
+            parseSubroutine(root);
+            tokenizer.advance();
+        }
+        return root;
+    }
+
+    private void parseVarDec(int parent, Kind kind) throws IOException{
+        int node = tree.add(parent, SyntaxTree.VAR_DEC, kind.ordinal());
+
+        // type
+        tokenizer.advance();
+        tree.add(node, SyntaxTree.TYPE, tokenizer.identifierId());
+
+        // varName (',' varName)*
+        tokenizer.advance();
+        tree.add(node, SyntaxTree.NAME, tokenizer.identifierId());
+        tokenizer.advance();
+        while(tokenizer.symbol() != ';'){
+            tokenizer.advance();
+            tree.add(node, SyntaxTree.NAME, tokenizer.identifierId());
+            tokenizer.advance();
+        }
+    }
+
+    private void parseSubroutine(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.SUBROUTINE, tokenizer.keyword().ordinal());
+
+        // skip void | type
+        tokenizer.advance();
+
+        // subroutineName
+        tokenizer.advance();
+        tree.add(node, SyntaxTree.NAME, tokenizer.identifierId());
+
+        // skip '('
+        tokenizer.advance();
+
+        // parameterList, a declaration for every parameter
+        tokenizer.advance();
+        if(tokenizer.tokenType() != Type.SYMBOL){
+            parseParameter(node);
+            while(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != ')'){
+                //skip ','
+                tokenizer.advance();
+                parseParameter(node);
+            }
+        }
+
+        // skip ')' '{'
+        expect(')');
+        tokenizer.advance();
+        expect('{');
+
+        tokenizer.advance();
+        while(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword() == Keyword.VAR){
+            parseVarDec(node, Kind.VAR);
+            tokenizer.advance();
+        }
+        parseStatements(node);
+        expect('}');
+    }
+
+    private void parseParameter(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.VAR_DEC, Kind.ARG.ordinal());
+        tree.add(node, SyntaxTree.TYPE, tokenizer.identifierId());
+        tokenizer.advance();
+        tree.add(node, SyntaxTree.NAME, tokenizer.identifierId());
+        tokenizer.advance();
+    }
+
+    private void parseStatements(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.STATEMENTS, 0);
+        while(tokenizer.tokenType() == Type.KEYWORD && TypesMap.isStatement(tokenizer.keyword())){
+            switch(tokenizer.keyword()){
+                case LET:
+                    parseLet(node);
+                    break;
+                case IF:
+                    parseIf(node);
+                    break;
+                case WHILE:
+                    parseWhile(node);
+                    break;
+                case DO:
+                    parseDo(node);
+                    break;
+                case RETURN:
+                    parseReturn(node);
+                    break;
+            }
+        }
+    }
+
+    private void parseLet(int parent) throws IOException{
+        // skip "let"
+        tokenizer.advance();
+        int name = tokenizer.identifierId();
+
+        int node;
+        tokenizer.advance();
+        if(tokenizer.tokenType() == Type.SYMBOL && tokenizer.symbol() == '['){
+            node = tree.add(parent, SyntaxTree.LET_ELEMENT, name);
+            tokenizer.advance();
+            parseExpression(node);
+            expect(']');
+
+            // get next token (=)
+            tokenizer.advance();
+        }
+        else node = tree.add(parent, SyntaxTree.LET, name);
+
+        // skip '='
+        expect('=');
+        tokenizer.advance();
+        parseExpression(node);
+
+        //skip ';'
+        expect(';');
+        tokenizer.advance();
+    }
+
+    private void parseIf(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.IF, 0);
+
+        // skip '('
+        tokenizer.advance();
+        expect('(');
+        tokenizer.advance();
+        parseExpression(node);
+        expect(')');
+
+        //skip '{'
+        tokenizer.advance();
+        expect('{');
+        tokenizer.advance();
+        parseStatements(node);
+        expect('}');
+
+        //check if else exists
+        tokenizer.advance();
+        if(tokenizer.tokenType() == Type.KEYWORD && tokenizer.keyword() == Keyword.ELSE){
+            // skip '{'
+            tokenizer.advance();
+            expect('{');
+            tokenizer.advance();
+            parseStatements(node);
+            expect('}');
+            tokenizer.advance();
+        }
+    }
+
+    private void parseWhile(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.WHILE, 0);
+
+        //skip '('
+        tokenizer.advance();
+        expect('(');
+        tokenizer.advance();
+        parseExpression(node);
+        expect(')');
+
+        //skip '{'
+        tokenizer.advance();
+        expect('{');
+        tokenizer.advance();
+        parseStatements(node);
+        expect('}');
+
+        //get the next token
+        tokenizer.advance();
+    }
+
+    private void parseDo(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.DO, 0);
+
+        // subroutineName | className | varName
+        tokenizer.advance();
+        int name = tokenizer.identifierId();
+
+        //read next '.' | '('
+        tokenizer.advance();
+        parseSubroutineCall(node, name);
+
+        //skip ';'
+        tokenizer.advance();
+        expect(';');
+        tokenizer.advance();
+    }
+
+    private void parseReturn(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.RETURN, 0);
+        tokenizer.advance();
+        if(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != ';'){
+            parseExpression(node);
+        }
+
+        //skip ';'
+        expect(';');
+        tokenizer.advance();
+    }
+
+    private void parseExpression(int parent) throws IOException{
+        int node = tree.add(parent, SyntaxTree.EXPRESSION, 0);
+        parseTerm(node);
+        while(tokenizer.tokenType() == Type.SYMBOL && TypesMap.containsOperation(tokenizer.symbol())){
+            tree.add(node, SyntaxTree.OPERATOR, tokenizer.symbol());
+            tokenizer.advance();
+            parseTerm(node);
+        }
+    }
+
+    private void parseTerm(int parent) throws IOException{
+        if(tokenizer.tokenType() == Type.KEYWORD){
+            switch(tokenizer.keyword()){
+                case TRUE:
+                case FALSE:
+                case NULL:
+                case THIS:
+                    break;
+                default:
+                    throw expectedTerm();
+            }
+            tree.add(parent, SyntaxTree.KEYWORD_CONST, tokenizer.keyword().ordinal());
+            tokenizer.advance();
+        }
+        else if(tokenizer.tokenType() == Type.SYMBOL){
+            if(tokenizer.symbol() == '('){
+                // the expression in parentheses is the term
+                tokenizer.advance();
+                parseExpression(parent);
+
+                //skip ')'
+                expect(')');
+                tokenizer.advance();
+            }
+            else if(tokenizer.symbol() == '-' || tokenizer.symbol() == '~'){
+                int node = tree.add(parent, SyntaxTree.UNARY, tokenizer.symbol());
+                tokenizer.advance();
+                parseTerm(node);
+            }
+            else throw expectedTerm();
+        }
+        else if(tokenizer.tokenType() == Type.INT_CONST){
+            tree.add(parent, SyntaxTree.INT_CONST, tokenizer.intVal());
+            tokenizer.advance();
+        }
+        else if(tokenizer.tokenType() == Type.STRING_CONST){
+            tree.add(parent, SyntaxTree.STRING_CONST, tokenizer.names.intern(tokenizer.buffer, tokenizer.tokenStart, tokenizer.tokenEnd - tokenizer.tokenStart));
+            tokenizer.advance();
+        }
+        else{
+            int term = tokenizer.identifierId();
+
+            //check if term does not end (next token is '[' | '(' | '.' )
+            tokenizer.advance();
+            if(tokenizer.tokenType() == Type.SYMBOL){
+                if(tokenizer.symbol() == '(' || tokenizer.symbol() == '.'){
+                    parseSubroutineCall(parent, term);
+
+                    //get next token
+                    tokenizer.advance();
+                }
+                else if(tokenizer.symbol() == '['){
+                    int node = tree.add(parent, SyntaxTree.ELEMENT, term);
+                    tokenizer.advance();
+                    parseExpression(node);
+
+                    //skip ']'
+                    expect(']');
+                    tokenizer.advance();
+                }
+                else tree.add(parent, SyntaxTree.VARIABLE, term);
+            }
+            else throw error("expected a symbol after " + tokenizer.names.name(term) + " but found '" + tokenizer.token() + "'");
+        }
+    }
+
+    private void parseSubroutineCall(int parent, int name) throws IOException{
+        int node;
+        if(tokenizer.tokenType() == Type.SYMBOL && tokenizer.symbol() == '.'){
+            node = tree.add(parent, SyntaxTree.QUALIFIED_CALL, name);
+
+            //read subroutineName
+            tokenizer.advance();
+            tree.add(node, SyntaxTree.NAME, tokenizer.identifierId());
+            tokenizer.advance();
+        }
+        else node = tree.add(parent, SyntaxTree.CALL, name);
+        expect('(');
+
+        // expressionList
+        tokenizer.advance();
+        while(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != ')'){
+            if(tokenizer.tokenType() == Type.SYMBOL && tokenizer.symbol() == ','){
+                tokenizer.advance();
+            }
+            else{
+                parseExpression(node);
+                if(tokenizer.tokenType() != Type.SYMBOL || tokenizer.symbol() != ',') expect(')');
+            }
+        }
+    }
+
+    /**
+     * The nodes do not keep their place in the source, so the errors found while the code is written have no line,
+     * the subroutine named in them tells where they are.
+     */
+    @Override
+    int line(){
+        return parsed ? 0 : super.line();
+    }
+
+    /**
+     * Writes the code of the class from its tree.
+     */
+    void generateClass(int root) throws IOException{
+        classId = tree.token(root);
+        className = tokenizer.names.name(classId);
+        for(int node = tree.child(root); node >= 0; node = tree.sibling(node)){
+            if(tree.kind(node) == SyntaxTree.VAR_DEC){
+                define(classTable, node);
+            }
+            else generateSubroutine(node);
+        }
+    }
+
+    private void define(SymbolTable table, int varDec){
+        Kind kind = Kind.values[tree.token(varDec)];
+        int type = tree.child(varDec);
+        for(int name = tree.sibling(type); name >= 0; name = tree.sibling(name)){
+            table.define(tree.token(name), tree.token(type), kind);
+        }
+    }
+
+    private void generateSubroutine(int subroutine) throws IOException{
+        SubroutineCompiledEvent event = new SubroutineCompiledEvent();
+        event.begin();
+        int firstInstruction = vmWriter.position();
+
+        subroutineTable.reset();
+        subroutineCount++;
+
+        subroutineKind = Keyword.values[tree.token(subroutine)];
+        if(subroutineKind == Keyword.METHOD){
+            subroutineTable.define(Keyword.THIS.ordinal(), classId, Kind.ARG);
+        }
+        int node = tree.child(subroutine);
+        funcName = tokenizer.names.name(tree.token(node));
+        for(node = tree.sibling(node); tree.kind(node) == SyntaxTree.VAR_DEC; node = tree.sibling(node)){
+            define(subroutineTable, node);
+        }
+
+        vmWriter.writeFunction(className + "." + funcName, subroutineTable.varCount(Kind.VAR));
+        if(subroutineKind == Keyword.CONSTRUCTOR){
+            //allocate memory for constructor
+            vmWriter.writePush(Segment.CONSTANT, classTable.varCount(Kind.FIELD));
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+        else if(subroutineKind == Keyword.METHOD){
+            // set THIS on RAM to the given object
+            vmWriter.writePush(Segment.ARGUMENT, 0);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+        if(folding){
+            countAssignments(node);
+        }
+        generateStatements(node);
+
+        if(event.shouldCommit()){
+            event.subroutine = className + "." + funcName;
+            event.instructions = vmWriter.position() - firstInstruction;
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts the assignments to every variable in a subtree.
+     */
+    private void countAssignments(int node){
+        if(tree.kind(node) == SyntaxTree.LET){
+            countAssignment(tree.token(node));
+        }
+        for(int child = tree.child(node); child >= 0; child = tree.sibling(child)){
+            if(tree.kind(child) <= SyntaxTree.RETURN){
+                countAssignments(child);
+            }
+        }
+    }
+
+    private void generateStatements(int statements) throws IOException{
+        for(int node = tree.child(statements); node >= 0; node = tree.sibling(node)){
+            switch(tree.kind(node)){
+                case SyntaxTree.LET:
+                case SyntaxTree.LET_ELEMENT:
+                    generateLet(node);
+                    break;
+                case SyntaxTree.IF:
+                    generateIf(node);
+                    break;
+                case SyntaxTree.WHILE:
+                    generateWhile(node);
+                    break;
+                case SyntaxTree.DO:
+                    generateCall(tree.child(node));
+                    //get rid of the returned value
+                    vmWriter.writePop(Segment.TEMP, 0);
+                    break;
+                case SyntaxTree.RETURN:
+                    if(tree.child(node) >= 0){
+                        generateExpression(tree.child(node));
+                    }
+                    else vmWriter.writePush(Segment.CONSTANT, 0);
+                    vmWriter.writeReturn();
+                    break;
+            }
+        }
+    }
+
+    private void generateLet(int let) throws IOException{
+        Segment segment = null;
+        int index = 0;
+        int name = tree.token(let);
+        boolean isArray = tree.kind(let) == SyntaxTree.LET_ELEMENT;
+        if(subroutineTable.contains(name)){
+            segment = getSubroutineVarSegment(name);
+            index = subroutineTable.indexOf(name);
+        }
+        else if(classTable.contains(name)){
+            segment = getClassVarSegment(name);
+            index = classTable.indexOf(name);
+        }
+        else throw undeclared(name);
+
+        int value = tree.child(let);
+        if(isArray){
+            //push the entry address of the array
+            vmWriter.writePush(segment, index);
+            generateExpression(value);
+            vmWriter.writeArithmetic(Command.ADD);
+            value = tree.sibling(value);
+        }
+        generateExpression(value);
+
+        // a local which is assigned once, outside of any if or while, keeps this value for the rest of the subroutine
+        if(!isArray && isConstant && statementDepth == 0 && subroutineTable.kindOf(name) == Kind.VAR && assignmentsOf(name) == 1){
+            setConstant(name, constantValue);
+        }
+
+        if(isArray){
+            vmWriter.writePop(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.POINTER, 1);
+            vmWriter.writePush(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.THAT, 0);
+        }
+        else {
+            vmWriter.writePop(segment, index);
+        }
+    }
+
+    private void generateIf(int node) throws IOException{
+        // the label count advances by 2 for the case of an else statement
+        int currentLabel = labelCount;
+        labelCount += 2;
+
+        int condition = tree.child(node);
+        generateExpression(condition);
+        vmWriter.writeArithmetic(Command.NOT);
+        vmWriter.writeIf("L"+ currentLabel);
+
+        int statements = tree.sibling(condition);
+        statementDepth++;
+        generateStatements(statements);
+        statementDepth--;
+
+        int otherwise = tree.sibling(statements);
+        if(otherwise >= 0){
+            vmWriter.writeGoTo("L" + (currentLabel+1));
+            vmWriter.writeLabel("L" + currentLabel++);
+            statementDepth++;
+            generateStatements(otherwise);
+            statementDepth--;
+        }
+        vmWriter.writeLabel("L" + currentLabel);
+    }
+
+    private void generateWhile(int node) throws IOException{
+        int currentLabel = labelCount;
+        labelCount += 2;
+        vmWriter.writeLabel("L" + currentLabel);
+
+        int condition = tree.child(node);
+        generateExpression(condition);
+        vmWriter.writeArithmetic(Command.NOT);
+        vmWriter.writeIf("L"+ (currentLabel+1));
+
+        statementDepth++;
+        generateStatements(tree.sibling(condition));
+        statementDepth--;
+
+        //Go to start of the loop
+        vmWriter.writeGoTo("L" + currentLabel++);
+        vmWriter.writeLabel("L" + currentLabel);
+    }
+
+    /**
+     * Writes an expression and sets isConstant and constantValue, like compileExpression.
+     */
+    private void generateExpression(int expression) throws IOException{
+        int start = vmWriter.position();
+        int term = tree.child(expression);
+        generateTerm(term);
+        boolean constant = isConstant;
+        int value = constantValue;
+
+        for(int operator = tree.sibling(term); operator >= 0; operator = tree.sibling(term)){
+            char op = (char)tree.token(operator);
+            term = tree.sibling(operator);
+            int rightStart = vmWriter.position();
+            generateTerm(term);
+
+            // replace the code of an operation on two constants with its result
+            if(constant && isConstant && canFold(op, value, constantValue)){
+                value = fold(op, value, constantValue);
+                vmWriter.truncate(start);
+                writeConstant(value);
+                countEliminatedCall(op);
+                continue;
+            }
+            if(reduceStrength && (op == '*' || op == '/') && writeReducedStrength(op, constant, value, start, rightStart)){
+                countEliminatedCall(op);
+                constant = false;
+                continue;
+            }
+            constant = false;
+
+            switch (op){
+                case '+':
+                    vmWriter.writeArithmetic(Command.ADD);
+                    break;
+                case '-':
+                    vmWriter.writeArithmetic(Command.SUB);
+                    break;
+                case '&':
+                    vmWriter.writeArithmetic(Command.AND);
+                    break;
+                case '|':
+                    vmWriter.writeArithmetic(Command.OR);
+                    break;
+                case '<':
+                    vmWriter.writeArithmetic(Command.LT);
+                    break;
+                case '>':
+                    vmWriter.writeArithmetic(Command.GT);
+                    break;
+                case '=':
+                    vmWriter.writeArithmetic(Command.EQ);
+                    break;
+                case '*':
+                    vmWriter.writeCall("Math.multiply", 2);
+                    break;
+                case '/':
+                    vmWriter.writeCall("Math.divide", 2);
+                    break;
+            }
+        }
+        isConstant = constant;
+        constantValue = value;
+    }
+
+    private void generateTerm(int node) throws IOException{
+        isConstant = false;
+        switch(tree.kind(node)){
+            case SyntaxTree.EXPRESSION:
+                generateExpression(node);
+                break;
+            case SyntaxTree.KEYWORD_CONST:
+                switch(Keyword.values[tree.token(node)]){
+                    case TRUE:
+                        writeConstant(-1);
+                        isConstant = folding;
+                        constantValue = -1;
+                        break;
+                    case FALSE:
+                    case NULL:
+                        writeConstant(0);
+                        isConstant = folding;
+                        constantValue = 0;
+                        break;
+                    case THIS:
+                        vmWriter.writePush(Segment.POINTER, 0);
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            case SyntaxTree.INT_CONST:
+                vmWriter.writePush(Segment.CONSTANT, tree.token(node));
+                isConstant = folding;
+                constantValue = tree.token(node);
+                break;
+            case SyntaxTree.UNARY: {
+                char symbol = (char)tree.token(node);
+                int start = vmWriter.position();
+                generateTerm(tree.child(node));
+                if(isConstant){
+                    constantValue = (short)((symbol == '-') ? -constantValue : ~constantValue);
+                    vmWriter.truncate(start);
+                    writeConstant(constantValue);
+                }
+                else if(symbol == '-'){
+                    vmWriter.writeArithmetic(Command.NEG);
+                }
+                else vmWriter.writeArithmetic(Command.NOT);
+                break;
+            }
+            case SyntaxTree.CALL:
+            case SyntaxTree.QUALIFIED_CALL:
+                generateCall(node);
+                break;
+            case SyntaxTree.STRING_CONST:
+                writeString(tokenizer.names.name(tree.token(node)));
+                break;
+            case SyntaxTree.VARIABLE:
+                generateVariable(tree.token(node));
+                break;
+            case SyntaxTree.ELEMENT:
+                generateVariable(tree.token(node));
+                generateExpression(tree.child(node));
+
+                //get the content at the array address
+                vmWriter.writeArithmetic(Command.ADD);
+                vmWriter.writePop(Segment.POINTER, 1);
+                vmWriter.writePush(Segment.THAT, 0);
+                isConstant = false;
+                break;
+        }
+    }
+
+    private void generateVariable(int name) throws IOException{
+        if(hasConstant(name)){
+            constantValue = constantValues[name];
+            writeConstant(constantValue);
+            isConstant = true;
+            return;
+        }
+        Segment segment = null;
+        int index = 0;
+        if(subroutineTable.contains(name)){
+            segment = getSubroutineVarSegment(name);
+            index = subroutineTable.indexOf(name);
+        }
+        else if(classTable.contains(name)){
+            segment = getClassVarSegment(name);
+            index = classTable.indexOf(name);
+        }
+        else throw undeclared(name);
+        vmWriter.writePush(segment, index);
+    }
+
+    private void generateCall(int call) throws IOException{
+        String funcCall;
+        int varCount = 0;
+        int name = tree.token(call);
+        int argument = tree.child(call);
+
+        if(tree.kind(call) == SyntaxTree.QUALIFIED_CALL){
+            //check if name is variable
+            if(subroutineTable.contains(name)){
+                funcCall = tokenizer.names.name(subroutineTable.typeOf(name)) + ".";
+                varCount++;
+                vmWriter.writePush(getSubroutineVarSegment(name), subroutineTable.indexOf(name));
+            }
+            else if(classTable.contains(name)){
+                funcCall = tokenizer.names.name(classTable.typeOf(name)) + ".";
+                varCount++;
+                vmWriter.writePush(getClassVarSegment(name), classTable.indexOf(name));
+            }
+            else funcCall = tokenizer.names.name(name) + ".";
+            funcCall += tokenizer.names.name(tree.token(argument));
+            argument = tree.sibling(argument);
+        }
+        else{
+            funcCall = className + "." + tokenizer.names.name(name);
+            varCount++;
+
+            //push the current object
+            vmWriter.writePush(Segment.POINTER, 0);
+        }
+
+        for(; argument >= 0; argument = tree.sibling(argument)){
+            generateExpression(argument);
+            varCount++;
+        }
+        vmWriter.writeCall(funcCall, varCount);
+        isConstant = false;
+    }
+}
@@ -3,5 +3,7 @@ public enum Type {
     SYMBOL,
     IDENTIFIER,
     INT_CONST,
-    STRING_CONST
+    STRING_CONST;
+
+    static final Type[] values = values();
 }
@@ -1,51 +1,48 @@
-import java.util.Map;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
+import java.util.EnumSet;
+import java.util.Set;
 
+/**
+ * Lookup tables for the lexical elements of Jack. All tables are built when the class is loaded
+ * and never change afterwards, so they can be shared between compiling threads.
+ */
 public class TypesMap {
-    public static Map<String,String> types = new HashMap<String,String>();
-    public static Map<String, String> xmlOps =new HashMap<String,String>();
-
-    public static List<String> statements = Arrays.asList(new String[]{"let","if","while","do","return"}); 
-    public static List<String> ops = Arrays.asList(new String[]{"+","-","*","/","&","|","<",">","="}); 
-    public static void init(){
-        //keywords
-        types.put("class", "keyword"); types.put("constructor", "keyword"); types.put("function", "keyword"); types.put("method", "keyword");
-        types.put("field", "keyword"); types.put("static", "keyword"); types.put("var", "keyword"); types.put("int", "keyword");
-        types.put("char", "keyword"); types.put("boolean", "keyword"); types.put("void", "keyword"); types.put("true", "keyword"); types.put("false", "keyword");
-        types.put("null", "keyword"); types.put("this", "keyword"); types.put("let", "keyword"); types.put("do", "keyword"); types.put("if", "keyword");
-        types.put("else", "keyword"); types.put("while", "keyword"); types.put("return", "keyword");
-        
-        //symbols
-        types.put("{", "symbol"); types.put("}", "symbol"); types.put("(", "symbol"); types.put(")", "symbol"); types.put("[", "symbol"); types.put("]", "symbol");
-        types.put(".", "symbol"); types.put(",", "symbol"); types.put(";", "symbol"); types.put("+", "symbol"); types.put("-", "symbol");
-        types.put("*", "symbol"); types.put("/", "symbol"); types.put("&", "symbol"); types.put("|", "symbol"); types.put("<", "symbol");
-        types.put(">", "symbol"); types.put("=", "symbol"); types.put("~", "symbol");
-
-        xmlOps.put("<", "&lt;"); xmlOps.put(">", "&gt;"); xmlOps.put("\"", "&quot;"); xmlOps.put("&", "&amp;");
-    }
-    public static String get(String key){
-        return types.get(key);
+    private static final byte SYMBOL = 1;
+    private static final byte OPERATION = 2;
+
+    // indexed by char, only ASCII chars can be symbols
+    private static final byte[] charClass = new byte[128];
+    private static final String[] xmlOps = new String[128];
+
+    private static final Set<Keyword> statements = EnumSet.of(Keyword.LET, Keyword.IF, Keyword.WHILE, Keyword.DO, Keyword.RETURN);
+
+    static {
+        for(char c : "{}()[].,;+-*/&|<>=~".toCharArray()){
+            charClass[c] |= SYMBOL;
+        }
+        for(char c : "+-*/&|<>=".toCharArray()){
+            charClass[c] |= OPERATION;
+        }
+
+        xmlOps['<'] = "&lt;"; xmlOps['>'] = "&gt;"; xmlOps['"'] = "&quot;"; xmlOps['&'] = "&amp;";
     }
 
-    public static boolean contains(String key){
-        return types.containsKey(key);
+    public static boolean isSymbol(char c){
+        return c < 128 && (charClass[c] & SYMBOL) != 0;
     }
 
     public static boolean containsOperation(char key){
-        return ops.contains(key+"");
+        return key < 128 && (charClass[key] & OPERATION) != 0;
     }
 
     public static boolean containsXmlOp(char key){
-        return xmlOps.containsKey(key+"");
+        return key < 128 && xmlOps[key] != null;
     }
 
     public static String getXmlOp(char key){
-        return xmlOps.get(key+"");
+        return xmlOps[key];
     }
 
-    public static boolean isStatement(String statement){
+    public static boolean isStatement(Keyword statement){
         return statements.contains(statement);
     }
 }
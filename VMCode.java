@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of VM instructions packed into parallel primitive arrays.
+ * Every instruction has a command, a segment (push and pop), an int operand (the index of push and pop,
+ * the number of arguments of call and the number of locals of function) and a name (the label of label, 
+ * goto and if-goto and the function name of function and call) which is an id in the strings pool.
+ */
+public class VMCode {
+
+    // the name of the push of the length which starts the code of a string literal, every other push has -1
+    static final int LITERAL = -2;
+
+    byte[] commands;
+    byte[] segments;
+    int[] operands;
+    int[] names;
+    int size;
+    NamePool strings;
+
+    public VMCode() {
+        this(new NamePool());
+    }
+
+    public VMCode(NamePool strings) {
+        this.commands = new byte[256];
+        this.segments = new byte[256];
+        this.operands = new int[256];
+        this.names = new int[256];
+        this.size = 0;
+        this.strings = strings;
+    }
+
+    public void add(Command command, Segment segment, int operand, int name){
+        if(size == commands.length){
+            int capacity = size * 2;
+            commands = Arrays.copyOf(commands, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        commands[size] = (byte)command.ordinal();
+        segments[size] = (byte)(segment == null ? 0 : segment.ordinal());
+        operands[size] = operand;
+        names[size] = name;
+        size++;
+    }
+
+    /**
+     * Appends the instruction at the given index of another buffer, the name is re-interned if the pools differ.
+     */
+    public void add(VMCode other, int i){
+        int name = other.names[i];
+        if(other.strings != strings && name >= 0){
+            name = strings.intern(other.strings.name(name));
+        }
+        add(other.command(i), other.segment(i), other.operands[i], name);
+    }
+
+    public int intern(String name){
+        return strings.intern(name);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public Command command(int i){
+        return Command.values[commands[i]];
+    }
+
+    public Segment segment(int i){
+        return Segment.values[segments[i]];
+    }
+
+    public int operand(int i){
+        return operands[i];
+    }
+
+    public void setOperand(int i, int operand){
+        operands[i] = operand;
+    }
+
+    public int name(int i){
+        return names[i];
+    }
+
+    public String nameOf(int i){
+        return strings.name(names[i]);
+    }
+
+    /**
+     * Returns whether the instruction is the push which starts the code of a string literal.
+     */
+    public boolean isLiteral(int i){
+        return names[i] == LITERAL;
+    }
+
+    /**
+     * Removes the instructions in [from, to), moving the ones after them back.
+     */
+    public void remove(int from, int to){
+        int count = size - to;
+        System.arraycopy(commands, to, commands, from, count);
+        System.arraycopy(segments, to, segments, from, count);
+        System.arraycopy(operands, to, operands, from, count);
+        System.arraycopy(names, to, names, from, count);
+        size -= to - from;
+    }
+
+    /**
+     * Drops every instruction from the given index on.
+     */
+    public void truncate(int size){
+        this.size = size;
+    }
+
+    /**
+     * Appends the textual .vm form of the instructions in [from, to) to the builder.
+     */
+    public void writeTo(StringBuilder out, int from, int to){
+        for(int i = from; i < to; i++){
+            Command command = command(i);
+            out.append(command.text);
+            switch(command){
+                case PUSH:
+                case POP:
+                    out.append(' ').append(segment(i).text).append(' ').append(operands[i]);
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    out.append(' ').append(nameOf(i));
+                    break;
+                case FUNCTION:
+                case CALL:
+                    out.append(' ').append(nameOf(i)).append(' ').append(operands[i]);
+                    break;
+                default:
+                    break;
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Reads instructions in the textual .vm form, skipping comments and blank lines.
+     */
+    public static VMCode parse(CharSequence text) throws IOException{
+        VMCode code = new VMCode();
+        String[] lines = text.toString().split("\n");
+        for(int l = 0; l < lines.length; l++){
+            String line = lines[l];
+            int comment = line.indexOf("//");
+            if(comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if(line.isEmpty()) continue;
+
+            String[] words = line.split("\\s+");
+            Command command = null;
+            for(Command c : Command.values){
+                if(c.text.equals(words[0])) command = c;
+            }
+            try{
+                switch(command){
+                    case PUSH:
+                    case POP:
+                        Segment segment = null;
+                        for(Segment s : Segment.values){
+                            if(s.text.equals(words[1])) segment = s;
+                        }
+                        if(segment == null) throw new IllegalArgumentException();
+                        code.add(command, segment, Integer.parseInt(words[2]), -1);
+                        break;
+                    case LABEL:
+                    case GOTO:
+                    case IF_GOTO:
+                        code.add(command, null, 0, code.intern(words[1]));
+                        break;
+                    case FUNCTION:
+                    case CALL:
+                        code.add(command, null, Integer.parseInt(words[2]), code.intern(words[1]));
+                        break;
+                    default:
+                        code.add(command, null, 0, -1);
+                }
+            }
+            catch(RuntimeException e){
+                throw new IOException("line " + (l + 1) + ": bad instruction '" + line + "'");
+            }
+        }
+        return code;
+    }
+
+    public String toString(){
+        StringBuilder out = new StringBuilder(size * 12);
+        writeTo(out, 0, size);
+        return out.toString();
+    }
+}
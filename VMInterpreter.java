@@ -0,0 +1,712 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs VM code without the VM emulator. The instructions are decoded into int arrays with the segments, static
+ * variables, labels and called functions resolved to addresses, and run by one loop over a 32K word RAM laid out like
+ * the Hack platform's. The Jack OS classes Math, Memory, String, Array, Output and Sys are stubbed in Java; a function
+ * loaded from VM code takes the place of the stub with the same name. Every executed instruction is counted, so the
+ * instructions and calls of each function can be reported.
+ *
+ * usage: VMInterpreter <file.vm | directory>... [--limit instructions] [--profile]
+ */
+public class VMInterpreter {
+
+    static final int RAM_SIZE = 32768;
+    static final int STATIC_BASE = 16;
+    static final int STACK_BASE = 256;
+    static final int HEAP_BASE = 2048;
+    static final int HEAP_END = 16384;
+
+    // decoded instructions, push and pop have one for each way of finding the variable
+    static final int PUSH_CONSTANT = 0;
+    static final int PUSH_LOCAL = 1;
+    static final int PUSH_ARGUMENT = 2;
+    static final int PUSH_THIS = 3;
+    static final int PUSH_THAT = 4;
+    static final int PUSH_ADDRESS = 5;
+    static final int POP_LOCAL = 6;
+    static final int POP_ARGUMENT = 7;
+    static final int POP_THIS = 8;
+    static final int POP_THAT = 9;
+    static final int POP_ADDRESS = 10;
+    static final int ADD = 11;
+    static final int SUB = 12;
+    static final int NEG = 13;
+    static final int EQ = 14;
+    static final int GT = 15;
+    static final int LT = 16;
+    static final int AND = 17;
+    static final int OR = 18;
+    static final int NOT = 19;
+    static final int GOTO = 20;
+    static final int IF_GOTO = 21;
+    static final int FUNCTION = 22;
+    static final int CALL = 23;
+    static final int CALL_BUILTIN = 24;
+    static final int RETURN = 25;
+
+    // the stubbed OS functions, a call to one is decoded with its index here
+    static final String[] BUILTINS = {
+        "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.abs", "Math.sqrt",
+        "Memory.peek", "Memory.poke", "Memory.alloc", "Memory.deAlloc",
+        "Array.new", "Array.dispose",
+        "String.new", "String.dispose", "String.length", "String.charAt", "String.setCharAt", "String.appendChar",
+        "String.eraseLastChar", "String.intValue", "String.setInt", "String.backSpace", "String.doubleQuote", "String.newLine",
+        "Output.printChar", "Output.printString", "Output.printInt", "Output.println", "Output.backSpace", "Output.moveCursor",
+        "Sys.halt", "Sys.error", "Sys.wait"
+    };
+
+    static class VMException extends Exception {
+        static final long serialVersionUID = 1L;
+
+        public VMException(String message) {
+            super(message);
+        }
+    }
+
+    int[] ram;
+
+    // the program: operation, operand and, for function and call, the count of locals or arguments
+    int[] operations;
+    int[] operands;
+    int[] counts;
+    int size;
+
+    // the first instruction of every function, in address order, and the functions by name
+    List<String> functionNames;
+    List<Integer> functionStarts;
+    Map<String, Integer> functions;
+
+    // the names of labels and called functions, and the one every call names, which is resolved when the program starts
+    List<String> names;
+    int[] callees;
+    boolean linked;
+
+    // the static variables of every loaded file start at its base
+    Map<String, Integer> staticBases;
+    int statics;
+
+    // how many times every instruction was executed
+    long[] executed;
+    long[] builtinCalls;
+    long instructions;
+
+    StringBuilder output;
+    int freeList;
+    int heapTop;
+    boolean halted;
+
+    public VMInterpreter() {
+        this.ram = new int[RAM_SIZE];
+        this.operations = new int[1024];
+        this.operands = new int[1024];
+        this.counts = new int[1024];
+        this.callees = new int[1024];
+        this.size = 0;
+        this.functionNames = new ArrayList<String>();
+        this.functionStarts = new ArrayList<Integer>();
+        this.functions = new HashMap<String, Integer>();
+        this.names = new ArrayList<String>();
+        this.staticBases = new HashMap<String, Integer>();
+        this.statics = STATIC_BASE;
+        this.output = new StringBuilder();
+    }
+
+    public static void main(String[] args) throws IOException {
+        VMInterpreter interpreter = new VMInterpreter();
+        long limit = Long.MAX_VALUE;
+        boolean profile = false;
+        int files = 0;
+        for(int i = 0; i < args.length; i++){
+            switch(args[i]){
+                case "--limit": limit = Long.parseLong(args[++i]); break;
+                case "--profile": profile = true; break;
+                default:
+                    interpreter.load(new File(args[i]));
+                    files++;
+            }
+        }
+        if(files == 0){
+            throw new IllegalArgumentException("usage: VMInterpreter <file.vm | directory>... [--limit instructions] [--profile]");
+        }
+
+        long start = System.nanoTime();
+        String error = null;
+        try{
+            interpreter.run(limit);
+        }
+        catch(VMException e){
+            error = e.getMessage();
+        }
+        long time = System.nanoTime() - start;
+        System.out.print(interpreter.output());
+        if(interpreter.output().length() > 0 && interpreter.output().charAt(interpreter.output().length() - 1) != '\n'){
+            System.out.println();
+        }
+        if(error != null){
+            System.out.println("error: " + error);
+        }
+        System.out.printf("executed %d instructions in %.1f ms%n", interpreter.instructions(), time / 1e6);
+        if(profile){
+            System.out.print(interpreter.profile());
+        }
+        if(error != null){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads a .vm file, or every .vm file of a directory. The statics of a file are named after it.
+     */
+    public void load(File file) throws IOException{
+        if(file.isDirectory()){
+            File[] children = file.listFiles((directory, name) -> name.endsWith(".vm"));
+            if(children == null) return;
+            Arrays.sort(children);
+            for(File child : children){
+                load(child);
+            }
+            return;
+        }
+        String name = file.getName();
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+        try{
+            load(VMCode.parse(text), name.endsWith(".vm") ? name.substring(0, name.length() - 3) : name);
+        }
+        catch(IOException e){
+            throw new IOException(file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the functions of compiled code, such as the code a VMWriter filled, with the statics of the given file.
+     */
+    public void load(VMCode code, String file) throws IOException{
+        int staticBase = staticBase(code, file);
+        String function = null;
+        int functionStart = 0;
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        for(int i = 0; i < code.size(); i++){
+            Command command = code.command(i);
+            if(command == Command.FUNCTION){
+                resolveLabels(function, functionStart, labels);
+                function = code.nameOf(i);
+                if(functions.containsKey(function)){
+                    throw new IOException("function " + function + " is defined twice");
+                }
+                functionStart = size;
+                functions.put(function, size);
+                functionNames.add(function);
+                functionStarts.add(size);
+                labels.clear();
+                add(FUNCTION, 0, code.operand(i));
+                continue;
+            }
+            if(function == null){
+                throw new IOException("instruction " + (i + 1) + " is outside of a function");
+            }
+            switch(command){
+                case PUSH:
+                case POP:
+                    addAccess(command == Command.PUSH, code.segment(i), code.operand(i), staticBase);
+                    break;
+                case ADD: add(ADD, 0, 0); break;
+                case SUB: add(SUB, 0, 0); break;
+                case NEG: add(NEG, 0, 0); break;
+                case EQ: add(EQ, 0, 0); break;
+                case GT: add(GT, 0, 0); break;
+                case LT: add(LT, 0, 0); break;
+                case AND: add(AND, 0, 0); break;
+                case OR: add(OR, 0, 0); break;
+                case NOT: add(NOT, 0, 0); break;
+                case LABEL:
+                    // a label is not an instruction, it names the one after it
+                    if(labels.put(code.nameOf(i), size) != null){
+                        throw new IOException("label " + code.nameOf(i) + " is defined twice in " + function);
+                    }
+                    break;
+                case GOTO:
+                case IF_GOTO:
+                    // the label is resolved at the end of the function, the operand holds its name until then
+                    names.add(code.nameOf(i));
+                    add((command == Command.GOTO) ? GOTO : IF_GOTO, names.size() - 1, 0);
+                    break;
+                case CALL:
+                    names.add(code.nameOf(i));
+                    callees[size] = names.size() - 1;
+                    add(CALL, 0, code.operand(i));
+                    break;
+                case RETURN:
+                    add(RETURN, 0, 0);
+                    break;
+                default:
+                    break;
+            }
+        }
+        resolveLabels(function, functionStart, labels);
+        linked = false;
+    }
+
+    /**
+     * Gives the statics of a file a range of the static segment, the same range every time the file is loaded.
+     */
+    private int staticBase(VMCode code, String file) throws IOException{
+        Integer base = staticBases.get(file);
+        int count = 0;
+        for(int i = 0; i < code.size(); i++){
+            if((code.command(i) == Command.PUSH || code.command(i) == Command.POP) && code.segment(i) == Segment.STATIC){
+                count = Math.max(count, code.operand(i) + 1);
+            }
+        }
+        if(base == null){
+            base = statics;
+            staticBases.put(file, base);
+            statics += count;
+        }
+        if(statics > STACK_BASE){
+            throw new IOException("the static variables of " + file + " do not fit below the stack");
+        }
+        return base;
+    }
+
+    private void addAccess(boolean push, Segment segment, int index, int staticBase) throws IOException{
+        switch(segment){
+            case CONSTANT:
+                if(!push) throw new IOException("pop constant " + index);
+                add(PUSH_CONSTANT, index, 0);
+                return;
+            case LOCAL:
+                add(push ? PUSH_LOCAL : POP_LOCAL, index, 0);
+                return;
+            case ARGUMENT:
+                add(push ? PUSH_ARGUMENT : POP_ARGUMENT, index, 0);
+                return;
+            case THIS:
+                add(push ? PUSH_THIS : POP_THIS, index, 0);
+                return;
+            case THAT:
+                add(push ? PUSH_THAT : POP_THAT, index, 0);
+                return;
+            case STATIC:
+                add(push ? PUSH_ADDRESS : POP_ADDRESS, staticBase + index, 0);
+                return;
+            case POINTER:
+                if(index > 1) throw new IOException("pointer " + index);
+                add(push ? PUSH_ADDRESS : POP_ADDRESS, 3 + index, 0);
+                return;
+            default:
+                if(index > 7) throw new IOException("temp " + index);
+                add(push ? PUSH_ADDRESS : POP_ADDRESS, 5 + index, 0);
+        }
+    }
+
+    /**
+     * Replaces the label names of the jumps of a function with the addresses of the labels.
+     */
+    private void resolveLabels(String function, int start, Map<String, Integer> labels) throws IOException{
+        if(function == null) return;
+        for(int pc = start; pc < size; pc++){
+            if(operations[pc] == GOTO || operations[pc] == IF_GOTO){
+                String label = names.get(operands[pc]);
+                Integer target = labels.get(label);
+                if(target == null){
+                    throw new IOException("label " + label + " is not defined in " + function);
+                }
+                operands[pc] = target;
+            }
+        }
+    }
+
+    private void add(int operation, int operand, int count){
+        if(size == operations.length){
+            operations = Arrays.copyOf(operations, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            callees = Arrays.copyOf(callees, size * 2);
+        }
+        operations[size] = operation;
+        operands[size] = operand;
+        counts[size] = count;
+        size++;
+    }
+
+    /**
+     * Points every call at the function it calls, or at the stub of an OS function no loaded code defines.
+     */
+    private void link() throws VMException{
+        if(linked) return;
+        Map<String, Integer> builtins = new HashMap<String, Integer>();
+        for(int b = 0; b < BUILTINS.length; b++){
+            builtins.put(BUILTINS[b], b);
+        }
+        for(int pc = 0; pc < size; pc++){
+            if(operations[pc] != CALL && operations[pc] != CALL_BUILTIN) continue;
+            String name = names.get(callees[pc]);
+            Integer target = functions.get(name);
+            if(target != null){
+                operations[pc] = CALL;
+                operands[pc] = target;
+            }
+            else if(builtins.containsKey(name)){
+                operations[pc] = CALL_BUILTIN;
+                operands[pc] = builtins.get(name);
+            }
+            else throw new VMException("function " + name + " is not defined, called from " + functionAt(pc));
+        }
+        linked = true;
+    }
+
+    /**
+     * Runs the program from Sys.init, or from Main.main when no Sys.init is loaded, until the entry function returns,
+     * Sys.halt is called or limit instructions were executed. The RAM, the output and the counts start over every run.
+     */
+    public void run(long limit) throws VMException{
+        link();
+        String entry = functions.containsKey("Sys.init") ? "Sys.init" : "Main.main";
+        Integer start = functions.get(entry);
+        if(start == null){
+            throw new VMException("neither Sys.init nor Main.main is defined");
+        }
+        Arrays.fill(ram, 0);
+        executed = new long[size];
+        builtinCalls = new long[BUILTINS.length];
+        output.setLength(0);
+        freeList = 0;
+        heapTop = HEAP_BASE;
+        halted = false;
+
+        // the entry is called from a frame whose return address ends the run
+        int[] ram = this.ram;
+        int[] operations = this.operations;
+        int[] operands = this.operands;
+        int[] counts = this.counts;
+        long[] executed = this.executed;
+        int sp = STACK_BASE + 5;
+        int lcl = sp;
+        int arg = STACK_BASE;
+        ram[STACK_BASE] = -1;
+        int pc = start;
+        int current = pc;
+        long count = 0;
+        try{
+            while(pc >= 0){
+                if(count == limit){
+                    throw new VMException("stopped after " + limit + " instructions in " + functionAt(pc));
+                }
+                count++;
+                current = pc;
+                executed[pc]++;
+                int operand = operands[pc];
+                switch(operations[pc++]){
+                    case PUSH_CONSTANT: ram[sp++] = operand; break;
+                    case PUSH_LOCAL: ram[sp++] = ram[lcl + operand]; break;
+                    case PUSH_ARGUMENT: ram[sp++] = ram[arg + operand]; break;
+                    case PUSH_THIS: ram[sp++] = ram[ram[3] + operand]; break;
+                    case PUSH_THAT: ram[sp++] = ram[ram[4] + operand]; break;
+                    case PUSH_ADDRESS: ram[sp++] = ram[operand]; break;
+                    case POP_LOCAL: ram[lcl + operand] = ram[--sp]; break;
+                    case POP_ARGUMENT: ram[arg + operand] = ram[--sp]; break;
+                    case POP_THIS: ram[ram[3] + operand] = ram[--sp]; break;
+                    case POP_THAT: ram[ram[4] + operand] = ram[--sp]; break;
+                    case POP_ADDRESS: ram[operand] = ram[--sp]; break;
+                    case ADD: sp--; ram[sp - 1] = (short)(ram[sp - 1] + ram[sp]); break;
+                    case SUB: sp--; ram[sp - 1] = (short)(ram[sp - 1] - ram[sp]); break;
+                    case NEG: ram[sp - 1] = (short)-ram[sp - 1]; break;
+                    case EQ: sp--; ram[sp - 1] = (ram[sp - 1] == ram[sp]) ? -1 : 0; break;
+                    case GT: sp--; ram[sp - 1] = (ram[sp - 1] > ram[sp]) ? -1 : 0; break;
+                    case LT: sp--; ram[sp - 1] = (ram[sp - 1] < ram[sp]) ? -1 : 0; break;
+                    case AND: sp--; ram[sp - 1] &= ram[sp]; break;
+                    case OR: sp--; ram[sp - 1] |= ram[sp]; break;
+                    case NOT: ram[sp - 1] = ~ram[sp - 1]; break;
+                    case GOTO: pc = operand; break;
+                    case IF_GOTO: if(ram[--sp] != 0) pc = operand; break;
+                    case FUNCTION:{
+                        int locals = counts[current];
+                        if(sp + locals >= HEAP_BASE){
+                            throw new VMException("stack overflow in " + functionAt(current));
+                        }
+                        for(int l = 0; l < locals; l++){
+                            ram[sp++] = 0;
+                        }
+                        break;
+                    }
+                    case CALL:
+                        ram[sp] = pc;
+                        ram[sp + 1] = lcl;
+                        ram[sp + 2] = arg;
+                        ram[sp + 3] = ram[3];
+                        ram[sp + 4] = ram[4];
+                        arg = sp - counts[current];
+                        sp += 5;
+                        lcl = sp;
+                        pc = operand;
+                        break;
+                    case CALL_BUILTIN:
+                        sp -= counts[current];
+                        ram[0] = sp;
+                        ram[1] = lcl;
+                        ram[2] = arg;
+                        builtinCalls[operand]++;
+                        ram[sp] = builtin(operand, sp);
+                        sp++;
+                        if(halted) pc = -1;
+                        break;
+                    case RETURN:{
+                        int frame = lcl;
+                        pc = ram[frame - 5];
+                        ram[arg] = ram[sp - 1];
+                        sp = arg + 1;
+                        ram[4] = ram[frame - 1];
+                        ram[3] = ram[frame - 2];
+                        arg = ram[frame - 3];
+                        lcl = ram[frame - 4];
+                        break;
+                    }
+                    default:
+                        throw new VMException("unknown operation " + operations[current] + " in " + functionAt(current));
+                }
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException e){
+            throw new VMException("address out of range in " + functionAt(current));
+        }
+        catch(VMException e){
+            if(operations[current] != CALL_BUILTIN) throw e;
+            throw new VMException(e.getMessage() + " in " + BUILTINS[operands[current]] + ", called from " + functionAt(current));
+        }
+        finally{
+            ram[0] = sp;
+            ram[1] = lcl;
+            ram[2] = arg;
+            instructions = count;
+        }
+    }
+
+    /**
+     * Runs the stub of an OS function on the arguments at base, returns its value.
+     */
+    private int builtin(int builtin, int base) throws VMException{
+        int x = ram[base];
+        int y = ram[base + 1];
+        switch(BUILTINS[builtin]){
+            case "Math.multiply":
+                return (short)(x * y);
+            case "Math.divide":
+                if(y == 0) throw new VMException("division by zero");
+                return (short)(x / y);
+            case "Math.min":
+                return Math.min(x, y);
+            case "Math.max":
+                return Math.max(x, y);
+            case "Math.abs":
+                return (short)Math.abs(x);
+            case "Math.sqrt":
+                if(x < 0) throw new VMException("square root of " + x);
+                return (int)Math.sqrt(x);
+            case "Memory.peek":
+                return ram[x];
+            case "Memory.poke":
+                ram[x] = y;
+                return 0;
+            case "Memory.alloc":
+            case "Array.new":
+                return alloc(x);
+            case "Memory.deAlloc":
+            case "Array.dispose":
+            case "String.dispose":
+                deAlloc(x);
+                return 0;
+            case "String.new":
+                // the maximum length, the length and the characters
+                if(x < 0) throw new VMException("string of length " + x);
+                int string = alloc(x + 2);
+                ram[string] = x;
+                ram[string + 1] = 0;
+                return string;
+            case "String.length":
+                return ram[x + 1];
+            case "String.charAt":
+                checkIndex(x, y);
+                return ram[x + 2 + y];
+            case "String.setCharAt":
+                checkIndex(x, y);
+                ram[x + 2 + y] = ram[base + 2];
+                return 0;
+            case "String.appendChar":
+                if(ram[x + 1] == ram[x]) throw new VMException("string is full");
+                ram[x + 2 + ram[x + 1]++] = y;
+                return x;
+            case "String.eraseLastChar":
+                if(ram[x + 1] == 0) throw new VMException("string is empty");
+                ram[x + 1]--;
+                return 0;
+            case "String.intValue":
+                return intValue(x);
+            case "String.setInt":
+                String digits = Integer.toString(y);
+                if(digits.length() > ram[x]) throw new VMException("string is too short for " + y);
+                for(int i = 0; i < digits.length(); i++){
+                    ram[x + 2 + i] = digits.charAt(i);
+                }
+                ram[x + 1] = digits.length();
+                return 0;
+            case "String.backSpace":
+                return 129;
+            case "String.doubleQuote":
+                return 34;
+            case "String.newLine":
+                return 128;
+            case "Output.printChar":
+                printChar(x);
+                return 0;
+            case "Output.printString":
+                for(int i = 0; i < ram[x + 1]; i++){
+                    printChar(ram[x + 2 + i]);
+                }
+                return 0;
+            case "Output.printInt":
+                output.append(x);
+                return 0;
+            case "Output.println":
+                output.append('\n');
+                return 0;
+            case "Output.backSpace":
+                printChar(129);
+                return 0;
+            case "Sys.halt":
+                halted = true;
+                return 0;
+            case "Sys.error":
+                throw new VMException("Sys.error " + x);
+            default:
+                // Output.moveCursor and Sys.wait have no effect here
+                return 0;
+        }
+    }
+
+    private void checkIndex(int string, int index) throws VMException{
+        if(index < 0 || index >= ram[string + 1]){
+            throw new VMException("index " + index + " out of a string of length " + ram[string + 1]);
+        }
+    }
+
+    private int intValue(int string){
+        int value = 0;
+        boolean negative = ram[string + 1] > 0 && ram[string + 2] == '-';
+        for(int i = negative ? 1 : 0; i < ram[string + 1]; i++){
+            int c = ram[string + 2 + i];
+            if(c < '0' || c > '9') break;
+            value = value * 10 + c - '0';
+        }
+        return (short)(negative ? -value : value);
+    }
+
+    private void printChar(int c){
+        if(c == 128){
+            output.append('\n');
+        }
+        else if(c == 129){
+            if(output.length() > 0) output.setLength(output.length() - 1);
+        }
+        else output.append((char)c);
+    }
+
+    /**
+     * Returns a block of the heap, the one before it holds its size. A freed block of the size or larger is used first.
+     */
+    private int alloc(int words) throws VMException{
+        if(words <= 0){
+            throw new VMException("allocation of " + words + " words");
+        }
+        for(int block = freeList, previous = 0; block != 0; previous = block, block = ram[block]){
+            if(ram[block - 1] >= words){
+                if(previous == 0) freeList = ram[block];
+                else ram[previous] = ram[block];
+                return block;
+            }
+        }
+        if(heapTop + 1 + words > HEAP_END){
+            throw new VMException("heap is full");
+        }
+        ram[heapTop] = words;
+        heapTop += 1 + words;
+        return heapTop - words;
+    }
+
+    private void deAlloc(int block){
+        if(block == 0) return;
+        ram[block] = freeList;
+        freeList = block;
+    }
+
+    /**
+     * Returns the name of the function the instruction at pc is in.
+     */
+    String functionAt(int pc){
+        for(int f = functionStarts.size() - 1; f >= 0; f--){
+            if(functionStarts.get(f) <= pc) return functionNames.get(f);
+        }
+        return "?";
+    }
+
+    public CharSequence output(){
+        return output;
+    }
+
+    /**
+     * Returns the number of instructions the last run executed.
+     */
+    public long instructions(){
+        return instructions;
+    }
+
+    /**
+     * Returns the number of instructions of a function the last run executed, or -1 if it is not loaded.
+     */
+    public long instructionsOf(String function){
+        Integer start = functions.get(function);
+        if(start == null || executed == null) return -1;
+        int f = functionStarts.indexOf(start);
+        int end = (f + 1 < functionStarts.size()) ? functionStarts.get(f + 1) : size;
+        long count = 0;
+        for(int pc = start; pc < end; pc++){
+            count += executed[pc];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the instructions and calls of every function the last run called, the most instructions first,
+     * followed by the calls of the OS stubs.
+     */
+    public String profile(){
+        if(executed == null) return "";
+        List<Integer> called = new ArrayList<Integer>();
+        long[] counts = new long[functionNames.size()];
+        for(int f = 0; f < functionNames.size(); f++){
+            counts[f] = instructionsOf(functionNames.get(f));
+            if(counts[f] > 0) called.add(f);
+        }
+        called.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%14s %6s %10s  %s%n", "instructions", "%", "calls", "function"));
+        for(int f : called){
+            report.append(String.format("%14d %6.2f %10d  %s%n", counts[f], 100.0 * counts[f] / Math.max(1, instructions),
+                executed[functionStarts.get(f)], functionNames.get(f)));
+        }
+        for(int b = 0; b < BUILTINS.length; b++){
+            if(builtinCalls[b] > 0){
+                report.append(String.format("%14s %6s %10d  %s (stub)%n", "", "", builtinCalls[b], BUILTINS[b]));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -1,55 +1,154 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 
 public class VMWriter {
     
-    BufferedWriter writer;
+    VMCode code;
+    File output;
+    PeepholeOptimizer optimizer;
+    CodeCompactor compactor;
+
+    // time spent by close() in the optimizer and the compactor and in writing the output
+    long optimizeNanos, writeNanos;
 
     public VMWriter(File output) throws IOException {
-        this.writer = new BufferedWriter(new FileWriter(output));
+        this(output, (PeepholeOptimizer)null);
+    }
+
+    /**
+     * Creates a writer which runs the peephole optimizer and the compactor if the options ask for them.
+     */
+    public VMWriter(File output, CompilerOptions options) throws IOException {
+        this(output, options.peephole ? new PeepholeOptimizer() : null);
+        if(options.compact){
+            this.compactor = new CodeCompactor();
+        }
+    }
+
+    /**
+     * Creates a writer which runs the given optimizer, if it is not null, over the code before writing it.
+     */
+    public VMWriter(File output, PeepholeOptimizer optimizer) throws IOException {
+        this.output = output;
+        this.code = new VMCode();
+        this.optimizer = optimizer;
     }
 
-    public void writePush(String segment, int index) throws IOException {
-        writer.write("push " + segment + " " + index+"\n");
+    /**
+     * Creates a writer that only collects the instructions in code.
+     */
+    public VMWriter() {
+        this.output = null;
+        this.code = new VMCode();
+        this.optimizer = null;
     }
 
-    public void writePop(String segment, int index) throws IOException {
-        writer.write("pop " + segment + " " + index+"\n");
+    public void writePush(Segment segment, int index) throws IOException {
+        if(segment == null){
+            throw new IOException("push without a segment");
+        }
+        code.add(Command.PUSH, segment, index, -1);
     }
 
-    public void writeArithmetic(String command) throws IOException{
-        writer.write(command + "\n");
+    /**
+     * Writes the push of the length which starts the code of a string literal, marked so the linker can tell it from
+     * a String.new call of the program.
+     */
+    public void writeLiteral(int length) throws IOException {
+        code.add(Command.PUSH, Segment.CONSTANT, length, VMCode.LITERAL);
+    }
+
+    public void writePop(Segment segment, int index) throws IOException {
+        if(segment == null || segment == Segment.CONSTANT){
+            throw new IOException((segment == null) ? "pop without a segment" : "pop to the constant segment");
+        }
+        code.add(Command.POP, segment, index, -1);
+    }
+
+    public void writeArithmetic(Command command) throws IOException{
+        code.add(command, null, 0, -1);
     }
 
     public void writeLabel(String label) throws IOException{
-        writer.write("lable " + label + "\n");
+        code.add(Command.LABEL, null, 0, code.intern(label));
     }
 
     public void writeGoTo(String label) throws IOException{
-        writer.write("goto " + label + "\n");
+        code.add(Command.GOTO, null, 0, code.intern(label));
     }
 
     public void writeIf(String label) throws IOException{
-        writer.write("if-goto " + label + "\n");
+        code.add(Command.IF_GOTO, null, 0, code.intern(label));
     }
 
     public void writeCall(String name, int nArgs) throws IOException{
-        writer.write("call " + name + " " + nArgs + "\n");
+        code.add(Command.CALL, null, nArgs, code.intern(name));
     }
 
     public void writeFunction(String name, int nVars) throws IOException{
-        writer.write("function " + name + " " + nVars + "\n");
+        code.add(Command.FUNCTION, null, nVars, code.intern(name));
     }
 
     public void writeReturn() throws IOException{
-        writer.write("return\n");
+        code.add(Command.RETURN, null, 0, -1);
+    }
+
+    /**
+     * Returns the number of instructions written so far.
+     */
+    public int position(){
+        return code.size();
+    }
+
+    /**
+     * Returns the command of the instruction written at the given position.
+     */
+    public Command commandAt(int position){
+        return code.command(position);
+    }
+
+    /**
+     * Drops the instructions written after the given position.
+     */
+    public void truncate(int position){
+        code.truncate(position);
+    }
+
+    /**
+     * Removes the instructions written in [from, to).
+     */
+    public void remove(int from, int to){
+        code.remove(from, to);
+    }
+
+    public VMCode getCode(){
+        return code;
     }
 
+    /**
+     * Writes the collected instructions to the output file in a single write.
+     */
     public void close() throws IOException{
-        writer.close();
+        long start = System.nanoTime();
+        if(optimizer != null){
+            code = optimizer.optimize(code);
+        }
+        if(compactor != null){
+            code = compactor.compact(code);
+        }
+        long optimized = System.nanoTime();
+        optimizeNanos = optimized - start;
+        if(output == null) return;
+        StringBuilder text = new StringBuilder(code.size() * 12);
+        code.writeTo(text, 0, code.size());
+        try(OutputStream out = new FileOutputStream(output)){
+            out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        writeNanos = System.nanoTime() - optimized;
     }
 
 }
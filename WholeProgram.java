@@ -0,0 +1,449 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Compiles all the classes of a program in memory, so optimizations can look across classes before anything is written.
+ */
+public class WholeProgram {
+
+    // the functions every program starts from, besides the roots given with --root
+    static final String[] DEFAULT_ROOTS = {"Sys.init", "Main.main"};
+
+    /**
+     * A function of the program, its code shares the string pool of the class owner.
+     */
+    static class Function {
+        String name;
+        int owner;
+        VMCode code;
+        boolean live;
+
+        // Tarjan's strongly connected components of the call graph: the visit number, the lowest visit number
+        // reachable, and whether the function is on the stack of the search
+        int visit, low;
+        boolean onStack;
+
+        Function(String name, int owner, VMCode code) {
+            this.name = name;
+            this.owner = owner;
+            this.code = code;
+            this.live = true;
+        }
+    }
+
+    CompilerOptions options;
+    List<File> sources;
+    VMCode[] classes;
+
+    // the functions of all the classes by name, in the order of the classes
+    Map<String, Function> functions;
+
+    public WholeProgram(CompilerOptions options) {
+        this.options = options;
+        this.sources = new ArrayList<File>();
+        this.classes = new VMCode[0];
+        this.functions = new LinkedHashMap<String, Function>();
+    }
+
+    /**
+     * Compiles the files in memory. A file which fails to compile is added to failures.
+     */
+    public void compile(List<File> files, Queue<String> failures){
+        sources = new ArrayList<File>(files);
+        classes = new VMCode[files.size()];
+        Map<File, Integer> indexes = new HashMap<File, Integer>();
+        for(int i = 0; i < files.size(); i++){
+            indexes.put(files.get(i), i);
+        }
+        JackAnalyzer.forEachFile(files, options.threads, f -> {
+            try{
+                VMWriter writer = new VMWriter(null, options);
+                // the program is compacted once, after inlining added its own labels
+                writer.compactor = null;
+                CompilationEngine cEng = CompilationEngine.create(new JackTokenizer(f), writer, options);
+                try{
+                    cEng.compileClass();
+                }
+                finally{
+                    cEng.close();
+                }
+                if(writer.optimizer != null){
+                    JackAnalyzer.peepholeTotals.merge(writer.optimizer);
+                }
+                classes[indexes.get(f)] = writer.getCode();
+            }
+            catch(Exception e){
+                failures.add(f.getPath() + ": " + e);
+            }
+        });
+        index();
+    }
+
+    /**
+     * Splits the code of every class into its functions.
+     */
+    void index(){
+        functions.clear();
+        for(int c = 0; c < classes.length; c++){
+            VMCode code = classes[c];
+            Function current = null;
+            for(int i = 0; i < code.size(); i++){
+                if(code.command(i) == Command.FUNCTION){
+                    current = new Function(code.nameOf(i), c, new VMCode(code.strings));
+                    functions.put(current.name, current);
+                }
+                if(current != null) current.code.add(code, i);
+            }
+        }
+    }
+
+    /**
+     * Replaces the calls to functions of at most options.inlineThreshold instructions by their code, and returns a report.
+     * The arguments and locals of the inlined code are moved to locals of the caller after its own ones, the slots are
+     * shared by all the inlined calls of a caller since those never overlap. Functions are processed callees first,
+     * so a callee already has its own small callees inlined. Functions which can call themselves are never inlined.
+     */
+    public String inlineSmallFunctions(){
+        StringBuilder report = new StringBuilder();
+        List<Function> order = new ArrayList<Function>();
+        Set<Function> recursive = new HashSet<Function>();
+        findRecursion(order, recursive);
+
+        int sites = 0;
+        Set<Function> inlined = new HashSet<Function>();
+        PeepholeOptimizer optimizer = options.peephole ? new PeepholeOptimizer() : null;
+        for(Function caller : order){
+            int before = sites;
+            VMCode code = caller.code;
+            VMCode out = new VMCode(code.strings);
+            int locals = code.operand(0);
+            int extra = 0;
+            boolean usesThis = usesThis(code);
+            out.add(code, 0);
+            for(int i = 1; i < code.size(); i++){
+                Function callee = (code.command(i) == Command.CALL) ? functions.get(code.nameOf(i)) : null;
+                if(callee == null || !canInline(caller, callee, recursive)){
+                    out.add(code, i);
+                    continue;
+                }
+                extra = Math.max(extra, inline(callee, code.operand(i), locals, usesThis, sites, out));
+                sites++;
+                inlined.add(callee);
+                if(options.verbose){
+                    report.append("  inlined ").append(callee.name).append(" into ").append(caller.name).append('\n');
+                }
+            }
+            if(sites > before){
+                out.setOperand(0, locals + extra);
+                caller.code = (optimizer != null) ? optimizer.optimize(out) : out;
+            }
+        }
+
+        report.append("inlining: ").append(sites).append(" calls to ").append(inlined.size()).append(" functions inlined, ")
+            .append(recursive.size()).append(" recursive functions excluded\n");
+        return report.toString();
+    }
+
+    private boolean canInline(Function caller, Function callee, Set<Function> recursive){
+        if(callee == caller || recursive.contains(callee)) return false;
+        if(callee.code.size() - 1 > options.inlineThreshold) return false;
+        // the static segment belongs to the file the code is in
+        return callee.owner == caller.owner || !usesSegment(callee.code, Segment.STATIC);
+    }
+
+    /**
+     * Adds the code of the callee in place of a call with the given number of arguments, with its arguments and locals
+     * in the locals of the caller from base on. Returns the number of locals used.
+     */
+    private int inline(Function callee, int arguments, int base, boolean usesThis, int site, VMCode out){
+        VMCode code = callee.code;
+        int locals = code.operand(0);
+        int firstLocal = base + arguments;
+        int saved = firstLocal + locals;
+        boolean savesThis = usesThis && writesThis(code);
+
+        // the arguments are on the stack with the last one on top
+        for(int a = arguments - 1; a >= 0; a--){
+            out.add(Command.POP, Segment.LOCAL, base + a, -1);
+        }
+        if(savesThis){
+            out.add(Command.PUSH, Segment.POINTER, 0, -1);
+            out.add(Command.POP, Segment.LOCAL, saved, -1);
+        }
+        for(int l = 0; l < locals; l++){
+            if(mayReadBeforeWrite(code, l)){
+                out.add(Command.PUSH, Segment.CONSTANT, 0, -1);
+                out.add(Command.POP, Segment.LOCAL, firstLocal + l, -1);
+            }
+        }
+
+        String suffix = "$" + site;
+        int end = -1;
+        for(int i = 1; i < code.size(); i++){
+            Command command = code.command(i);
+            switch(command){
+                case PUSH:
+                case POP:
+                    if(code.segment(i) == Segment.ARGUMENT){
+                        out.add(command, Segment.LOCAL, base + code.operand(i), -1);
+                    }
+                    else if(code.segment(i) == Segment.LOCAL){
+                        out.add(command, Segment.LOCAL, firstLocal + code.operand(i), -1);
+                    }
+                    else out.add(code, i);
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    out.add(command, null, 0, out.intern(code.nameOf(i) + suffix));
+                    break;
+                case RETURN:
+                    // the return value is on top of the stack, the last return just falls through
+                    if(i < code.size() - 1){
+                        if(end < 0) end = out.intern("INLINE_END" + suffix);
+                        out.add(Command.GOTO, null, 0, end);
+                    }
+                    break;
+                default:
+                    out.add(code, i);
+            }
+        }
+        if(end >= 0){
+            out.add(Command.LABEL, null, 0, end);
+        }
+        if(savesThis){
+            out.add(Command.PUSH, Segment.LOCAL, saved, -1);
+            out.add(Command.POP, Segment.POINTER, 0, -1);
+        }
+        return arguments + locals + (savesThis ? 1 : 0);
+    }
+
+    /**
+     * Returns whether the local can be read before it is written, in which case it has to start as 0.
+     * Only straight code before the first use is followed, a jump makes the answer yes.
+     */
+    private static boolean mayReadBeforeWrite(VMCode code, int local){
+        for(int i = 1; i < code.size(); i++){
+            Command command = code.command(i);
+            if(command == Command.LABEL || command == Command.GOTO || command == Command.IF_GOTO) return true;
+            if((command == Command.PUSH || command == Command.POP) && code.segment(i) == Segment.LOCAL && code.operand(i) == local){
+                return command == Command.PUSH;
+            }
+        }
+        return false;
+    }
+
+    private static boolean usesSegment(VMCode code, Segment segment){
+        for(int i = 0; i < code.size(); i++){
+            if((code.command(i) == Command.PUSH || code.command(i) == Command.POP) && code.segment(i) == segment) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the code reads the current object, through the this segment or pointer 0.
+     */
+    private static boolean usesThis(VMCode code){
+        for(int i = 0; i < code.size(); i++){
+            if(code.command(i) == Command.PUSH && code.segment(i) == Segment.POINTER && code.operand(i) == 0) return true;
+        }
+        return usesSegment(code, Segment.THIS);
+    }
+
+    private static boolean writesThis(VMCode code){
+        for(int i = 0; i < code.size(); i++){
+            if(code.command(i) == Command.POP && code.segment(i) == Segment.POINTER && code.operand(i) == 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the functions to order with every function after the ones it calls, except within a cycle,
+     * and the functions which can call themselves to recursive.
+     */
+    private void findRecursion(List<Function> order, Set<Function> recursive){
+        int[] visits = {0};
+        Deque<Function> stack = new ArrayDeque<Function>();
+        for(Function f : functions.values()){
+            f.visit = 0;
+        }
+        for(Function f : functions.values()){
+            if(f.visit == 0) connect(f, visits, stack, order, recursive);
+        }
+    }
+
+    private void connect(Function f, int[] visits, Deque<Function> stack, List<Function> order, Set<Function> recursive){
+        f.visit = f.low = ++visits[0];
+        stack.push(f);
+        f.onStack = true;
+        boolean callsItself = false;
+        for(int i = 0; i < f.code.size(); i++){
+            if(f.code.command(i) != Command.CALL) continue;
+            Function callee = functions.get(f.code.nameOf(i));
+            if(callee == null) continue;
+            if(callee == f) callsItself = true;
+            if(callee.visit == 0){
+                connect(callee, visits, stack, order, recursive);
+                f.low = Math.min(f.low, callee.low);
+            }
+            else if(callee.onStack){
+                f.low = Math.min(f.low, callee.visit);
+            }
+        }
+        if(f.low == f.visit){
+            // f is the root of a component, which is recursive when it has more than one function or a call to itself
+            List<Function> component = new ArrayList<Function>();
+            Function member;
+            do{
+                member = stack.pop();
+                member.onStack = false;
+                component.add(member);
+            } while(member != f);
+            if(component.size() > 1 || callsItself){
+                recursive.addAll(component);
+            }
+            order.addAll(component);
+        }
+    }
+
+    /**
+     * Removes the functions which can not be reached through calls from the roots and returns a report of them.
+     * Without any root in the program, for example when compiling a library, nothing is removed.
+     */
+    public String eliminateDeadFunctions(){
+        StringBuilder report = new StringBuilder();
+        List<String> roots = new ArrayList<String>(options.roots);
+        for(String root : DEFAULT_ROOTS){
+            roots.add(root);
+        }
+
+        for(Function f : functions.values()){
+            f.live = false;
+        }
+        Deque<Function> reached = new ArrayDeque<Function>();
+        for(String root : roots){
+            Function f = functions.get(root);
+            if(f == null){
+                if(options.roots.contains(root)) report.append("root ").append(root).append(" is not defined\n");
+            }
+            else if(!f.live){
+                f.live = true;
+                reached.push(f);
+            }
+        }
+        if(reached.isEmpty()){
+            for(Function f : functions.values()){
+                f.live = true;
+            }
+            return report.append("dead functions: no root function in the program, nothing removed\n").toString();
+        }
+
+        while(!reached.isEmpty()){
+            Function f = reached.pop();
+            VMCode code = f.code;
+            for(int i = 0; i < code.size(); i++){
+                if(code.command(i) == Command.CALL){
+                    Function callee = functions.get(code.nameOf(i));
+                    if(callee != null && !callee.live){
+                        callee.live = true;
+                        reached.push(callee);
+                    }
+                }
+            }
+        }
+
+        int removed = 0;
+        long instructions = 0, bytes = 0;
+        StringBuilder text = new StringBuilder();
+        for(Function f : functions.values()){
+            if(f.live) continue;
+            removed++;
+            instructions += f.code.size();
+            text.setLength(0);
+            f.code.writeTo(text, 0, f.code.size());
+            bytes += text.length();
+            if(options.verbose){
+                report.append("  removed ").append(f.name).append('\n');
+            }
+        }
+
+        report.append("dead functions: removed ").append(removed).append(" of ").append(functions.size())
+            .append(" functions, ").append(instructions).append(" instructions, ").append(bytes).append(" bytes\n");
+        return report.toString();
+    }
+
+    /**
+     * Removes the unreachable code and unused labels of every live function, gives the labels the shortest names,
+     * and returns a report.
+     */
+    public String compact(){
+        CodeCompactor compactor = new CodeCompactor();
+        for(Function f : functions.values()){
+            if(f.live) f.code = compactor.compact(f.code);
+        }
+        return compactor.report();
+    }
+
+    /**
+     * Writes the live functions of every class to the .vm file next to its source, or into the bundle if it is not null.
+     * A class left without functions has no output, an old .vm file of it is deleted so it is not translated with the program.
+     */
+    public void write(OutputBundle bundle) throws IOException{
+        VMCode[] live = new VMCode[classes.length];
+        for(int c = 0; c < classes.length; c++){
+            live[c] = new VMCode(classes[c].strings);
+        }
+        for(Function f : functions.values()){
+            if(!f.live) continue;
+            for(int i = 0; i < f.code.size(); i++){
+                live[f.owner].add(f.code, i);
+            }
+        }
+
+        for(int c = 0; c < classes.length; c++){
+            File output = outputOf(c);
+            VMCode code = live[c];
+            if(bundle != null){
+                if(code.size() > 0) bundle.add(bundle.nameOf(sources.get(c)), code);
+                continue;
+            }
+            if(code.size() == 0){
+                Files.deleteIfExists(output.toPath());
+                continue;
+            }
+            StringBuilder text = new StringBuilder(code.size() * 12);
+            code.writeTo(text, 0, code.size());
+            try(OutputStream out = new FileOutputStream(output)){
+                out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    private File outputOf(int c){
+        String path = sources.get(c).getPath();
+        return new File(path.substring(0, path.length() - 4) + "vm");
+    }
+
+    /**
+     * Deletes the .vm files next to the sources.
+     */
+    public void deleteOutputs() throws IOException{
+        for(int c = 0; c < classes.length; c++){
+            Files.deleteIfExists(outputOf(c).toPath());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jack.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH command line does, with the gc profiler always on so the allocation per unit of
+ * work is reported next to the rates.
+ *
+ * usage: java -jar benchmarks/target/benchmarks.jar [JMH options, e.g. -p options=-O2 -p classes=200 compile]
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions command = new CommandLineOptions(args);
+        if(command.shouldHelp()){
+            command.showHelp();
+            return;
+        }
+        if(command.shouldList()){
+            new Runner(command).list();
+            return;
+        }
+        Options options = new OptionsBuilder()
+            .parent(command)
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
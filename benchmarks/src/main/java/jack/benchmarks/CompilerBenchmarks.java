@@ -0,0 +1,116 @@
+package jack.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenization, whole class compilation and VM code output over a generated corpus. One operation goes over the whole
+ * corpus; the tokens, classes and bytes counters give the rates per unit, and the gc profiler the allocation per unit.
+ * The compiler is in the default package, which code in a package can not name, so its CompilerBenchmark is called
+ * through method handles found by reflection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CompilerBenchmarks {
+
+    // the corpus, see JackGenerator; -1 keeps the generator's default
+    @Param("50")
+    int classes;
+
+    @Param("-1")
+    int subroutines;
+
+    @Param("-1")
+    int statements;
+
+    @Param("-1")
+    int depth;
+
+    @Param("-1")
+    int identifiers;
+
+    @Param("-1")
+    double comments;
+
+    @Param("1")
+    long seed;
+
+    // compiler options: -O0, -O1, -O2, --peephole, --compact and --ast
+    @Param({"-O1"})
+    String options;
+
+    MethodHandle tokenize, compile, emit, sink;
+
+    // the units of work done, reported per second next to the corpus operations
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Classes {
+        public long classes;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws Throwable {
+        Class<?> type = Class.forName("CompilerBenchmark");
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle create = lookup.findStatic(type, "create", MethodType.methodType(type, int.class, long.class, int.class,
+            int.class, int.class, int.class, double.class, String.class));
+        Object benchmark = create.invoke(classes, seed, subroutines, statements, depth, identifiers, comments, options);
+        tokenize = lookup.findVirtual(type, "tokenize", MethodType.methodType(long.class)).bindTo(benchmark);
+        compile = lookup.findVirtual(type, "compile", MethodType.methodType(long.class)).bindTo(benchmark);
+        emit = lookup.findVirtual(type, "emit", MethodType.methodType(long.class)).bindTo(benchmark);
+        sink = lookup.findVirtual(type, "sink", MethodType.methodType(long.class)).bindTo(benchmark);
+        // emit writes the code compile made
+        compile.invoke();
+    }
+
+    @Benchmark
+    public void tokenize(Tokens units, Blackhole blackhole) throws Throwable {
+        units.tokens += (long)tokenize.invokeExact();
+        blackhole.consume((long)sink.invokeExact());
+    }
+
+    @Benchmark
+    public void compile(Classes units, Blackhole blackhole) throws Throwable {
+        units.classes += (long)compile.invokeExact();
+        blackhole.consume((long)sink.invokeExact());
+    }
+
+    @Benchmark
+    public void emit(Bytes units, Blackhole blackhole) throws Throwable {
+        units.bytes += (long)emit.invokeExact();
+        blackhole.consume((long)sink.invokeExact());
+    }
+}